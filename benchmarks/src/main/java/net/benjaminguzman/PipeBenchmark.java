@@ -0,0 +1,153 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput of {@link Pipe#run()}
+ * <p>
+ * Every invocation pipes {@link #INPUT_SIZE} bytes of input. Besides invocations per second, JMH reports
+ * the secondary metrics {@link Counters#bytes} (bytes read per second) and {@link Counters#lines}
+ * (lines per second). Run it with "-prof gc" to get the allocation rate
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipeBenchmark {
+	/**
+	 * Bytes of input for every invocation
+	 */
+	private static final int INPUT_SIZE = 8 * 1024 * 1024;
+
+	@Param({"16", "256", "4096", "65536"})
+	private int lineSize;
+
+	/**
+	 * If true, lines get a prefix and a suffix
+	 */
+	@Param({"false", "true"})
+	private boolean decorate;
+
+	@Param({"0", "1", "10", "100"})
+	private int hooks;
+
+	@Param({"true", "false"})
+	private boolean autoFlush;
+
+	@Param({"UTF-8", "ISO-8859-1"})
+	private String charset;
+
+	private byte[] input;
+	private int nLines;
+	private Charset cs;
+	private Map<Pattern, Consumer<String>> hookMap;
+
+	/**
+	 * Secondary metrics reported by JMH as rates
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long bytes;
+		public long lines;
+	}
+
+	@Setup
+	public void setup() {
+		cs = Charset.forName(charset);
+		Random random = new Random(42);
+		String alphabet = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789:.-";
+
+		nLines = Math.max(1, INPUT_SIZE / lineSize);
+		StringBuilder text = new StringBuilder(nLines * lineSize);
+		for (int i = 0; i < nLines; ++i) {
+			// one of every 100 lines matches a hook
+			int start = text.length();
+			if (i % 100 == 0)
+				text.append("Service is running ");
+			while (text.length() - start < lineSize - 1)
+				text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			text.append('\n');
+		}
+		input = text.toString().getBytes(cs);
+
+		hookMap = new LinkedHashMap<>();
+		for (int i = 0; i < hooks; ++i) {
+			// mix literal patterns and regular expressions, as real hook sets do
+			Pattern pattern = i == 0
+				? Pattern.compile("Service is (up|running)")
+				: i % 2 == 0 ? Pattern.compile("ERROR " + i) : Pattern.compile("listening on :" + i + "\\d+");
+			hookMap.put(pattern, line -> {});
+		}
+	}
+
+	@Benchmark
+	public long run(Counters counters) {
+		CountingOutputStream outStream = new CountingOutputStream();
+		Pipe.Builder builder = new Pipe.Builder(new ByteArrayInputStream(input), outStream, cs, cs)
+			.setAutoFlush(autoFlush);
+		if (decorate)
+			builder.setPrefix("[service] ").setSuffix(" [end]");
+		if (hooks > 0)
+			builder.setHooks(hookMap);
+
+		new Pipe(builder).run();
+		counters.bytes += input.length;
+		counters.lines += nLines;
+		return outStream.count;
+	}
+
+	/**
+	 * Discards everything, but counts the bytes (so the JIT can't remove the writes)
+	 */
+	private static final class CountingOutputStream extends OutputStream {
+		private long count;
+
+		@Override
+		public void write(int b) {
+			++count;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
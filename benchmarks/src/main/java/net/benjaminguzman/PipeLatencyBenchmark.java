@@ -0,0 +1,95 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Latency from the moment a line is written to the input of a running pipe until a hook matching it is called
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipeLatencyBenchmark {
+	private static final byte[] LINE = "Service is running on 127.0.0.1:1111\n".getBytes(StandardCharsets.UTF_8);
+
+	@Param({"false", "true"})
+	private boolean autoFlush;
+
+	private final AtomicLong hookCalls = new AtomicLong();
+	private final ByteBuffer line = ByteBuffer.wrap(LINE);
+	private java.nio.channels.Pipe.SinkChannel producer;
+	private Thread thread;
+
+	@Setup
+	public void setup() throws IOException {
+		java.nio.channels.Pipe channel = java.nio.channels.Pipe.open();
+		producer = channel.sink();
+
+		Map<Pattern, Consumer<String>> hooks = new HashMap<>();
+		hooks.put(Pattern.compile("Service is (up|running)"), line -> hookCalls.incrementAndGet());
+
+		thread = new Pipe(
+			new Pipe.Builder(Channels.newInputStream(channel.source()), OutputStream.nullOutputStream())
+				.setPrefix("[service] ")
+				.setHooks(hooks)
+				.setAutoFlush(autoFlush)
+		).initThread();
+		thread.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException, InterruptedException {
+		producer.close();
+		thread.join();
+	}
+
+	@Benchmark
+	public long lineToHook() throws IOException {
+		long expected = hookCalls.get() + 1;
+		line.clear();
+		while (line.hasRemaining())
+			producer.write(line);
+		while (hookCalls.get() < expected)
+			Thread.onSpinWait();
+		return expected;
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton to find several literal strings within a text in a single scan
+ * <p>
+ * Transitions for ASCII characters are stored in a dense table (full DFA, no failure links need to be
+ * followed while scanning), while transitions for other characters are stored sparsely, in sorted primitive
+ * arrays, so scanning never allocates memory
+ * <p>
+ * Instances are immutable and can be shared among threads
+ */
+final class AhoCorasick {
+	private static final int ALPHABET = 128;
+
+	/**
+	 * ASCII transitions. Next state for state s and char c is asciiNext[s * ALPHABET + c]
+	 */
+	private final int[] asciiNext;
+
+	/**
+	 * Non-ASCII transitions of the trie (without failure links), sorted by key. Key is (state << 16) | char,
+	 * and the next state of sparseKeys[i] is sparseNext[i]
+	 */
+	private final long[] sparseKeys;
+	private final int[] sparseNext;
+
+	private final int[] fail;
+
+	/**
+	 * Ids of the literals recognized when reaching each state. null if no literal is recognized
+	 */
+	private final int[][] outputs;
+
+	private final boolean hasNonAscii;
+
+	/**
+	 * @param literals literals to search. The id of each literal is its index in the array.
+	 *                 Literals must not be empty
+	 */
+	AhoCorasick(@NotNull String[] literals) {
+		// build the trie
+		List<int[]> ascii = new ArrayList<>();
+		List<List<Integer>> out = new ArrayList<>();
+		HashMap<Long, Integer> sparse = new HashMap<>();
+		ascii.add(newRow());
+		out.add(new ArrayList<>());
+		boolean nonAscii = false;
+
+		for (int id = 0; id < literals.length; ++id) {
+			String literal = literals[id];
+			if (literal.isEmpty())
+				throw new IllegalArgumentException("Literals must not be empty");
+
+			int state = 0;
+			for (int i = 0; i < literal.length(); ++i) {
+				char c = literal.charAt(i);
+				int next = c < ALPHABET ? ascii.get(state)[c] : sparse.getOrDefault(key(state, c), -1);
+				if (next == -1) {
+					next = ascii.size();
+					ascii.add(newRow());
+					out.add(new ArrayList<>());
+					if (c < ALPHABET) {
+						ascii.get(state)[c] = next;
+					} else {
+						sparse.put(key(state, c), next);
+						nonAscii = true;
+					}
+				}
+				state = next;
+			}
+			out.get(state).add(id);
+		}
+
+		int nStates = ascii.size();
+		this.fail = new int[nStates];
+		this.asciiNext = new int[nStates * ALPHABET];
+		this.sparseKeys = sparse.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+		this.sparseNext = new int[sparseKeys.length];
+		for (int i = 0; i < sparseKeys.length; ++i)
+			sparseNext[i] = sparse.get(sparseKeys[i]);
+		this.hasNonAscii = nonAscii;
+
+		// root transitions not in the trie go back to the root
+		int[] root = ascii.get(0);
+		for (int c = 0; c < ALPHABET; ++c)
+			asciiNext[c] = root[c] == -1 ? 0 : root[c];
+
+		// compute failure links in BFS order and complete the ascii DFA
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		HashMap<Integer, List<Long>> sparseChildren = new HashMap<>();
+		for (long k : sparseKeys)
+			sparseChildren.computeIfAbsent((int) (k >>> 16), s -> new ArrayList<>()).add(k);
+
+		enqueueChildren(0, root, sparseChildren, queue, true);
+		while (!queue.isEmpty()) {
+			int state = queue.poll();
+			int[] row = ascii.get(state);
+			int f = fail[state];
+			out.get(state).addAll(out.get(f));
+
+			for (int c = 0; c < ALPHABET; ++c)
+				asciiNext[state * ALPHABET + c] = row[c] == -1 ? asciiNext[f * ALPHABET + c] : row[c];
+
+			enqueueChildren(state, row, sparseChildren, queue, false);
+		}
+
+		this.outputs = new int[nStates][];
+		for (int s = 0; s < nStates; ++s) {
+			List<Integer> ids = out.get(s);
+			outputs[s] = ids.isEmpty() ? null : ids.stream().distinct().mapToInt(Integer::intValue).toArray();
+		}
+	}
+
+	/**
+	 * Sets the failure link of every child of the given state and adds them to the queue
+	 */
+	private void enqueueChildren(
+		int state,
+		int[] row,
+		@NotNull HashMap<Integer, List<Long>> sparseChildren,
+		@NotNull ArrayDeque<Integer> queue,
+		boolean isRoot
+	) {
+		for (int c = 0; c < ALPHABET; ++c) {
+			int child = row[c];
+			if (child == -1)
+				continue;
+			fail[child] = isRoot ? 0 : asciiNext[fail[state] * ALPHABET + c];
+			queue.add(child);
+		}
+		for (long k : sparseChildren.getOrDefault(state, List.of())) {
+			int child = sparseNext[Arrays.binarySearch(sparseKeys, k)];
+			fail[child] = isRoot ? 0 : nonAsciiStep(fail[state], (char) (k & 0xFFFF));
+			queue.add(child);
+		}
+	}
+
+	/**
+	 * Scans the text and marks found[id] = true for every literal found on it.
+	 * Entries of found that were already true are left as they are
+	 *
+	 * @param text  text to scan
+	 * @param found array with (at least) one entry per literal
+	 */
+	void scan(@NotNull CharSequence text, boolean[] found) {
+		int state = 0;
+		for (int i = 0, len = text.length(); i < len; ++i) {
+			char c = text.charAt(i);
+			state = c < ALPHABET ? asciiNext[state * ALPHABET + c] : nonAsciiStep(state, c);
+
+			int[] ids = outputs[state];
+			if (ids != null)
+				for (int id : ids)
+					found[id] = true;
+		}
+	}
+
+	private int nonAsciiStep(int state, char c) {
+		if (!hasNonAscii)
+			return 0;
+
+		while (true) {
+			int i = Arrays.binarySearch(sparseKeys, key(state, c));
+			if (i >= 0)
+				return sparseNext[i];
+			if (state == 0)
+				return 0;
+			state = fail[state];
+		}
+	}
+
+	private static long key(int state, char c) {
+		return ((long) state << 16) | c;
+	}
+
+	private static int[] newRow() {
+		int[] row = new int[ALPHABET];
+		Arrays.fill(row, -1);
+		return row;
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Gives the text of lines framed as bytes (see {@link ByteLineSplitter}), so hooks can match them
+ * <p>
+ * ISO-8859-1 lines and lines made only of ASCII characters are not decoded: they're viewed as characters
+ * directly. Any other line is decoded into a reused buffer
+ * <p>
+ * The returned {@link CharSequence} is reused, so it is only valid until the next call
+ */
+final class ByteLineDecoder {
+	@NotNull
+	private final CharsetDecoder decoder;
+
+	private final boolean latin1;
+
+	private final boolean asciiCompatible;
+
+	private final float maxCharsPerByte;
+
+	@NotNull
+	private final Latin1Slice latin1View = new Latin1Slice();
+
+	@NotNull
+	private final CharSlice charView = new CharSlice();
+
+	@NotNull
+	private CharBuffer chars = CharBuffer.allocate(256);
+
+	/**
+	 * @param charset charset of the lines. Lines are viewed without decoding them only if it is ASCII-compatible
+	 *                (see {@link LineWriter#isAsciiCompatible})
+	 */
+	ByteLineDecoder(@NotNull Charset charset) {
+		this.decoder = charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.latin1 = charset.equals(StandardCharsets.ISO_8859_1);
+		this.asciiCompatible = LineWriter.isAsciiCompatible(charset);
+		this.maxCharsPerByte = decoder.maxCharsPerByte();
+	}
+
+	@NotNull
+	CharSequence decode(byte[] bytes, int offset, int length) {
+		if (latin1 || asciiCompatible && ByteScanner.isAscii(bytes, offset, offset + length))
+			return latin1View.set(bytes, offset, length);
+
+		// room for the replacement of an incomplete character at the end too
+		int capacity = (int) Math.ceil(length * (double) maxCharsPerByte) + 1;
+		if (chars.capacity() < capacity)
+			chars = CharBuffer.allocate(Math.max(chars.capacity() * 2, capacity));
+
+		chars.clear();
+		decoder.reset();
+		ByteBuffer in = ByteBuffer.wrap(bytes, offset, length);
+		decoder.decode(in, chars, true);
+		decoder.flush(chars);
+		return charView.set(chars.array(), 0, chars.position());
+	}
+
+	/**
+	 * View of ISO-8859-1 bytes as characters (every byte is the code point of a character)
+	 */
+	private static final class Latin1Slice implements CharSequence {
+		private byte[] array;
+		private int offset;
+		private int length;
+
+		@NotNull
+		Latin1Slice set(byte[] array, int offset, int length) {
+			this.array = array;
+			this.offset = offset;
+			this.length = length;
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length)
+				throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+			return (char) (array[offset + index] & 0xFF);
+		}
+
+		@NotNull
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length || start > end)
+				throw new IndexOutOfBoundsException("Start: " + start + ", end: " + end + ", length: " + length);
+			return new String(array, offset + start, end - start, StandardCharsets.ISO_8859_1);
+		}
+
+		@NotNull
+		@Override
+		public String toString() {
+			return new String(array, offset, length, StandardCharsets.ISO_8859_1);
+		}
+	}
+}
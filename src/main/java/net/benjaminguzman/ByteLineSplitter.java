@@ -0,0 +1,520 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Splits chunks of bytes into lines, the same way {@link LineSplitter} does with characters, or into records
+ * delimited in any other way (see {@link #setFraming(RecordFraming)})
+ * <p>
+ * Framing lines is only valid for ASCII-compatible charsets (see {@link LineWriter#isAsciiCompatible}), in which
+ * the bytes '\n' and '\r' are never part of other characters. Terminators are found with {@link ByteScanner}
+ * <p>
+ * Lines are given as ranges of the chunk being fed or of an internal buffer (for lines spanning several chunks),
+ * so no memory is allocated per line once the internal buffer has grown to the size of the longest line
+ * <p>
+ * If a maximum length is set (see {@link #setMaxLength(int, LongLinePolicy, boolean)}), the internal buffer never
+ * grows beyond it, and longer lines are given in pieces
+ */
+final class ByteLineSplitter {
+	@FunctionalInterface
+	interface LineConsumer {
+		/**
+		 * @param bytes  array containing the line. It is only valid during this call
+		 * @param offset index of the first byte of the line
+		 * @param length number of bytes of the line
+		 */
+		void accept(byte[] bytes, int offset, int length) throws IOException;
+	}
+
+	/**
+	 * Bytes of the current line that were given in previous chunks
+	 */
+	private byte[] pending = new byte[128];
+	private int pendingLength;
+
+	/**
+	 * true if the previous chunk ended with '\r', so a '\n' at the beginning of the next one must be skipped
+	 */
+	private boolean skipLF;
+
+	/**
+	 * true while a line is given to the consumer and there are more bytes after it in the chunk
+	 */
+	private boolean moreInChunk;
+
+	/**
+	 * Number of bytes of the partial line that have already been written (see {@link #markPartialWritten()}),
+	 * and whether any part of it was written or given as a piece
+	 */
+	private int partialWritten;
+	private boolean partialContinues;
+
+	/**
+	 * The same information for the line being given to the consumer
+	 */
+	private int lineWritten;
+	private boolean lineContinues;
+	private boolean linePiece;
+
+	private int maxLength = Integer.MAX_VALUE;
+
+	@NotNull
+	private LongLinePolicy longLinePolicy = LongLinePolicy.SPLIT;
+
+	/**
+	 * true if bytes are UTF-8, so pieces must not split multi-byte characters
+	 */
+	private boolean utf8;
+
+	/**
+	 * true if the rest of the current line must be discarded, because it was truncated
+	 */
+	private boolean discarding;
+
+	@NotNull
+	private RecordFraming framing = RecordFraming.LINES;
+
+	@NotNull
+	private RecordFraming.Kind kind = RecordFraming.Kind.LINES;
+
+	/**
+	 * For delimited records, length of the longest proper prefix of the delimiter that is also a suffix of
+	 * its first i bytes (i.e. the KMP failure function), to match delimiters split between chunks
+	 */
+	private int[] border;
+
+	/**
+	 * For delimited records, number of bytes of the delimiter at the end of the last chunk.
+	 * They're not in the internal buffer
+	 */
+	private int carry;
+
+	/**
+	 * For counted records, number of bytes left to complete the record, or -1 while reading the length header
+	 */
+	private long remaining = -1;
+	private long header;
+	private int headerRead;
+
+	/**
+	 * Number of bytes fed before the current chunk, and index of the first byte of the current chunk
+	 */
+	private long fed;
+	private int chunkStart;
+
+	/**
+	 * Offset in the input of the first byte of the current line (or of the first piece that wasn't given yet)
+	 */
+	private long lineStart;
+
+	/**
+	 * @param maxLength maximum number of bytes of a line
+	 * @param policy    what to do with longer lines, see {@link LineSplitter#setMaxLength(int, LongLinePolicy)}
+	 * @param utf8      true if bytes are UTF-8. Pieces are cut at character boundaries in that case
+	 */
+	void setMaxLength(int maxLength, @NotNull LongLinePolicy policy, boolean utf8) {
+		this.maxLength = maxLength;
+		this.longLinePolicy = policy;
+		this.utf8 = utf8;
+	}
+
+	/**
+	 * @param framing how records are delimited. Default: {@link RecordFraming#LINES}
+	 */
+	void setFraming(@NotNull RecordFraming framing) {
+		this.framing = framing;
+		this.kind = framing.kind();
+		if (kind == RecordFraming.Kind.DELIMITER)
+			border = border(framing.delimiter());
+		remaining = kind == RecordFraming.Kind.FIXED_SIZE ? framing.size() : -1;
+	}
+
+	/**
+	 * Gives the consumer every line completed by the chunk
+	 */
+	void feed(byte[] bytes, int offset, int length, @NotNull LineConsumer consumer) throws IOException {
+		chunkStart = offset;
+		try {
+			switch (kind) {
+				case LINES:
+					feedLines(bytes, offset, offset + length, consumer);
+					break;
+				case DELIMITER:
+					feedDelimited(bytes, offset, offset + length, consumer);
+					break;
+				default:
+					feedCounted(bytes, offset, offset + length, consumer);
+			}
+		} finally {
+			moreInChunk = false;
+			fed += length;
+		}
+	}
+
+	/**
+	 * Gives the consumer the last line, if the input didn't end with a line terminator
+	 */
+	void finish(@NotNull LineConsumer consumer) throws IOException {
+		skipLF = false;
+		discarding = false;
+		if (carry > 0) {
+			append(framing.delimiter(), 0, carry, consumer);
+			carry = 0;
+		}
+		if (pendingLength > 0)
+			givePending(consumer);
+	}
+
+	private void feedLines(byte[] bytes, int i, int end, @NotNull LineConsumer consumer) throws IOException {
+		if (skipLF && i < end) {
+			if (bytes[i] == '\n')
+				lineStart = offsetOf(++i);
+			skipLF = false;
+		}
+
+		int start = i;
+		while ((i = ByteScanner.indexOf(bytes, i, end, (byte) '\n', (byte) '\r')) >= 0) {
+			// the '\n' of a "\r\n" terminator is not more input
+			int terminator = bytes[i] == '\r' && i + 1 < end && bytes[i + 1] == '\n' ? 2 : 1;
+			moreInChunk = i + terminator < end;
+			endLine(bytes, start, i, consumer);
+
+			if (bytes[i] == '\r') {
+				if (i + 1 == end)
+					skipLF = true;
+				else if (bytes[i + 1] == '\n')
+					++i;
+			}
+			start = ++i;
+			lineStart = offsetOf(start);
+		}
+		append(bytes, start, end - start, consumer);
+	}
+
+	private void feedDelimited(byte[] bytes, int i, int end, @NotNull LineConsumer consumer) throws IOException {
+		byte[] delimiter = framing.delimiter();
+
+		// finish matching a delimiter split between chunks
+		while (carry > 0 && i < end) {
+			byte b = bytes[i];
+			while (carry > 0 && b != delimiter[carry]) {
+				// the bytes that can't be part of the delimiter anymore belong to the line
+				int next = border[carry];
+				append(delimiter, 0, carry - next, consumer);
+				carry = next;
+			}
+			if (b != delimiter[carry])
+				break;
+
+			++i;
+			if (++carry == delimiter.length) {
+				carry = 0;
+				moreInChunk = i < end;
+				endLine(bytes, i, i, consumer);
+				lineStart = offsetOf(i);
+			}
+		}
+		if (carry > 0)
+			return;
+
+		int start = i;
+		while ((i = ByteScanner.indexOf(bytes, i, end, delimiter[0])) >= 0) {
+			int matched = 1;
+			while (matched < delimiter.length && i + matched < end && bytes[i + matched] == delimiter[matched])
+				++matched;
+
+			if (matched == delimiter.length) {
+				moreInChunk = i + matched < end;
+				endLine(bytes, start, i, consumer);
+				start = i += matched;
+				lineStart = offsetOf(start);
+			} else if (i + matched == end) {
+				// the chunk ends with the beginning of the delimiter
+				append(bytes, start, i - start, consumer);
+				carry = matched;
+				return;
+			} else {
+				++i;
+			}
+		}
+		append(bytes, start, end - start, consumer);
+	}
+
+	private void feedCounted(byte[] bytes, int i, int end, @NotNull LineConsumer consumer) throws IOException {
+		while (i < end) {
+			if (remaining < 0) {
+				// reading the length of a length-prefixed record
+				header = header << 8 | bytes[i++] & 0xFF;
+				if (++headerRead < framing.size())
+					continue;
+				remaining = header;
+				header = 0;
+				headerRead = 0;
+				lineStart = offsetOf(i);
+				if (remaining > 0)
+					continue;
+			}
+
+			int n = (int) Math.min(remaining, end - i);
+			remaining -= n;
+			if (remaining == 0) {
+				moreInChunk = i + n < end;
+				endLine(bytes, i, i + n, consumer);
+				lineStart = offsetOf(i + n);
+				remaining = kind == RecordFraming.Kind.FIXED_SIZE ? framing.size() : -1;
+			} else {
+				append(bytes, i, n, consumer);
+			}
+			i += n;
+		}
+	}
+
+	/**
+	 * Gives the consumer the line made of the pending bytes followed by the given range
+	 */
+	private void endLine(byte[] bytes, int start, int end, @NotNull LineConsumer consumer) throws IOException {
+		if (discarding) {
+			discarding = false;
+		} else if (pendingLength == 0 && end - start <= maxLength) {
+			consumer.accept(bytes, start, end - start);
+		} else {
+			append(bytes, start, end - start, consumer);
+			// the line may have been truncated while appending
+			if (discarding)
+				discarding = false;
+			else
+				givePending(consumer);
+		}
+	}
+
+	/**
+	 * @return number of bytes at the beginning of the line being given to the consumer that were already
+	 * written, because they were part of a partial line (see {@link #markPartialWritten()}) or a previous piece
+	 */
+	int alreadyWritten() {
+		return lineWritten;
+	}
+
+	/**
+	 * @return true if the beginning of the line being given to the consumer was already written or given as
+	 * a piece, so it is a continuation (e.g. its prefix must not be written again)
+	 */
+	boolean isContinuation() {
+		return lineContinues;
+	}
+
+	/**
+	 * @return true if what is being given to the consumer is a piece of a long line, not a complete line
+	 * @see #setMaxLength(int, LongLinePolicy, boolean)
+	 */
+	boolean isPiece() {
+		return linePiece;
+	}
+
+	/**
+	 * @return number of bytes of the current partial line, i.e. the bytes after the last line terminator
+	 */
+	int partialLength() {
+		return pendingLength;
+	}
+
+	/**
+	 * @return array with the bytes of the current partial line, starting at index 0 (see {@link #partialLength()}).
+	 * It is only valid until more bytes are fed
+	 */
+	byte[] partialBytes() {
+		return pending;
+	}
+
+	/**
+	 * @return number of bytes of the current partial line that were already written
+	 * (see {@link #markPartialWritten()})
+	 */
+	int partialWritten() {
+		return partialWritten;
+	}
+
+	/**
+	 * @return true if the beginning of the current partial line was already written or given as a piece
+	 * @see #isContinuation()
+	 */
+	boolean isPartialContinuation() {
+		return partialContinues;
+	}
+
+	/**
+	 * Marks the current partial line as written, so {@link #alreadyWritten()} tells it when the line is complete
+	 */
+	void markPartialWritten() {
+		partialWritten = pendingLength;
+		partialContinues = true;
+	}
+
+	/**
+	 * @return offset in the input (i.e. in all the bytes fed) of the first byte of the line being given to the
+	 * consumer, or of the current partial line
+	 */
+	long lineOffset() {
+		return lineStart;
+	}
+
+	/**
+	 * @return offset in the input of the byte at the given index of the current chunk
+	 */
+	private long offsetOf(int index) {
+		return fed + index - chunkStart;
+	}
+
+	/**
+	 * @return true if the line being given to the consumer is not the last one of the chunk,
+	 * i.e. more lines are already available
+	 */
+	boolean hasMoreInChunk() {
+		return moreInChunk;
+	}
+
+	/**
+	 * Gives the consumer the line in the internal buffer
+	 */
+	private void givePending(@NotNull LineConsumer consumer) throws IOException {
+		int length = pendingLength;
+		lineWritten = partialWritten;
+		lineContinues = partialContinues;
+		pendingLength = 0;
+		partialWritten = 0;
+		partialContinues = false;
+		try {
+			consumer.accept(pending, 0, length);
+		} finally {
+			lineWritten = 0;
+			lineContinues = false;
+		}
+	}
+
+	/**
+	 * Appends bytes to the internal buffer. Pieces are given to the consumer whenever the buffer is full
+	 */
+	private void append(byte[] bytes, int start, int length, @NotNull LineConsumer consumer) throws IOException {
+		while (length > 0 && !discarding) {
+			int room = maxLength - pendingLength;
+			if (room == 0) {
+				givePiece(consumer);
+				continue;
+			}
+
+			int n = Math.min(room, length);
+			if (pendingLength + n > pending.length) {
+				int capacity = (int) Math.min(Math.max(pending.length * 2L, pendingLength + n), maxLength);
+				pending = Arrays.copyOf(pending, capacity);
+			}
+			System.arraycopy(bytes, start, pending, pendingLength, n);
+			pendingLength += n;
+			start += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Gives the consumer the first piece of the (full) internal buffer
+	 */
+	private void givePiece(@NotNull LineConsumer consumer) throws IOException {
+		// don't split UTF-8 characters: a piece can't end before a continuation byte (10xxxxxx)
+		int length = pendingLength;
+		if (utf8) {
+			int boundary = length;
+			// the next byte is not known yet, so look at the last bytes of the buffer instead
+			int lead = length - 1;
+			while (lead > 0 && length - lead < 4 && (pending[lead] & 0xC0) == 0x80)
+				--lead;
+			if ((pending[lead] & 0xC0) == 0xC0 && length - lead < utf8Length(pending[lead]))
+				boundary = lead;
+			if (boundary > 0)
+				length = boundary;
+		}
+
+		lineWritten = Math.min(partialWritten, length);
+		lineContinues = partialContinues;
+		linePiece = longLinePolicy != LongLinePolicy.SPLIT;
+		try {
+			consumer.accept(pending, 0, length);
+		} finally {
+			lineWritten = 0;
+			lineContinues = false;
+			linePiece = false;
+		}
+
+		int keep = 0;
+		if (longLinePolicy == LongLinePolicy.TRUNCATE) {
+			discarding = true;
+			length = pendingLength;
+		} else if (longLinePolicy == LongLinePolicy.STREAM) {
+			keep = Math.min(maxLength / 2, length);
+			partialContinues = true;
+		}
+
+		int drop = length - keep;
+		System.arraycopy(pending, drop, pending, 0, pendingLength - drop);
+		pendingLength -= drop;
+		lineStart += drop;
+		if (longLinePolicy == LongLinePolicy.STREAM) {
+			partialWritten = keep;
+		} else {
+			partialWritten = Math.max(0, partialWritten - drop);
+			partialContinues = partialWritten > 0;
+		}
+	}
+
+	/**
+	 * @return the KMP failure function of the delimiter, see {@link #border}
+	 */
+	private static int[] border(byte[] delimiter) {
+		int[] border = new int[delimiter.length + 1];
+		for (int i = 1, k = 0; i < delimiter.length; ++i) {
+			while (k > 0 && delimiter[i] != delimiter[k])
+				k = border[k];
+			if (delimiter[i] == delimiter[k])
+				++k;
+			border[i + 1] = k;
+		}
+		return border;
+	}
+
+	/**
+	 * @return number of bytes of the UTF-8 character starting with the given byte
+	 */
+	private static int utf8Length(byte lead) {
+		if ((lead & 0xE0) == 0xC0)
+			return 2;
+		if ((lead & 0xF0) == 0xE0)
+			return 3;
+		return 4;
+	}
+}
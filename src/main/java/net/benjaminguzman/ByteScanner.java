@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Fast search of bytes in arrays
+ * <p>
+ * Bytes are compared 8 at a time (SWAR, SIMD within a register): a word of the array is XOR-ed with the byte
+ * repeated 8 times, so matching bytes become 0, and zero bytes are found with the usual
+ * <code>(x - 0x01..01) &amp; ~x &amp; 0x80..80</code> trick. The lowest flagged byte is always a true match
+ * <p>
+ * On Java 21+ with the jdk.incubator.vector module added, ranges of at least {@link #VECTOR_THRESHOLD} bytes are
+ * searched with the Vector API instead (see {@link VectorScan})
+ */
+final class ByteScanner {
+	/**
+	 * Little-endian view of byte arrays as longs, so the lowest byte of a word is the first one in the array
+	 */
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+
+	private static final boolean VECTORIZED = VectorScan.isAvailable();
+
+	/**
+	 * Minimum number of bytes for which a vector search pays off
+	 */
+	private static final int VECTOR_THRESHOLD = 64;
+
+	private ByteScanner() {
+	}
+
+	/**
+	 * @return index of the first occurrence of the byte in the range [from, to) of the array, or -1 if it is not
+	 * there
+	 */
+	static int indexOf(byte[] array, int from, int to, byte b) {
+		if (VECTORIZED && to - from >= VECTOR_THRESHOLD)
+			return VectorScan.indexOf(array, from, to, b);
+
+		long pattern = (b & 0xFFL) * ONES;
+		int i = from;
+		for (; i + Long.BYTES <= to; i += Long.BYTES) {
+			long found = zeros((long) LONGS.get(array, i) ^ pattern);
+			if (found != 0)
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+		}
+		for (; i < to; ++i)
+			if (array[i] == b)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @return index of the first occurrence of any of the two bytes in the range [from, to) of the array,
+	 * or -1 if none of them is there
+	 */
+	static int indexOf(byte[] array, int from, int to, byte b1, byte b2) {
+		if (VECTORIZED && to - from >= VECTOR_THRESHOLD)
+			return VectorScan.indexOf(array, from, to, b1, b2);
+
+		long pattern1 = (b1 & 0xFFL) * ONES;
+		long pattern2 = (b2 & 0xFFL) * ONES;
+		int i = from;
+		for (; i + Long.BYTES <= to; i += Long.BYTES) {
+			long word = (long) LONGS.get(array, i);
+			long found = zeros(word ^ pattern1) | zeros(word ^ pattern2);
+			if (found != 0)
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+		}
+		for (; i < to; ++i)
+			if (array[i] == b1 || array[i] == b2)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Every byte of the set is compared against every word, so this is meant for small sets
+	 *
+	 * @param set bytes to search. It must not be empty
+	 * @return index of the first occurrence of any of the bytes of the set in the range [from, to) of the array,
+	 * or -1 if none of them is there
+	 */
+	static int indexOfAny(byte[] array, int from, int to, byte[] set) {
+		if (VECTORIZED && to - from >= VECTOR_THRESHOLD)
+			return VectorScan.indexOfAny(array, from, to, set);
+
+		int i = from;
+		for (; i + Long.BYTES <= to; i += Long.BYTES) {
+			long word = (long) LONGS.get(array, i);
+			long found = 0;
+			for (byte b : set)
+				found |= zeros(word ^ (b & 0xFFL) * ONES);
+			if (found != 0)
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+		}
+		for (; i < to; ++i)
+			for (byte b : set)
+				if (array[i] == b)
+					return i;
+		return -1;
+	}
+
+	/**
+	 * @return true if all the bytes in the range [from, to) of the array are ASCII (their high bit is not set)
+	 */
+	static boolean isAscii(byte[] array, int from, int to) {
+		if (VECTORIZED && to - from >= VECTOR_THRESHOLD)
+			return VectorScan.isAscii(array, from, to);
+
+		int i = from;
+		for (; i + Long.BYTES <= to; i += Long.BYTES)
+			if (((long) LONGS.get(array, i) & HIGHS) != 0)
+				return false;
+		for (; i < to; ++i)
+			if (array[i] < 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return a word with the high bit of (at least) the lowest zero byte of the given word set
+	 */
+	private static long zeros(long word) {
+		return (word - ONES) & ~word & HIGHS;
+	}
+}
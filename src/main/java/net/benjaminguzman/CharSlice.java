@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Mutable view over a range of a char array, used to give lines to the writer and the hooks without creating a
+ * {@link String} for each of them
+ * <p>
+ * The view is reused for every line, so it is only valid during the call it was given to.
+ * Use {@link #toString()} to keep a copy
+ */
+final class CharSlice implements CharSequence {
+	private char[] array;
+	private int offset;
+	private int length;
+
+	CharSlice() {
+		this(new char[0], 0, 0);
+	}
+
+	CharSlice(char[] array, int offset, int length) {
+		set(array, offset, length);
+	}
+
+	/**
+	 * Points this view to a new range
+	 *
+	 * @return this
+	 */
+	@NotNull
+	CharSlice set(char[] array, int offset, int length) {
+		this.array = array;
+		this.offset = offset;
+		this.length = length;
+		return this;
+	}
+
+	char[] array() {
+		return array;
+	}
+
+	int offset() {
+		return offset;
+	}
+
+	/**
+	 * Writes the characters of the view without copying them
+	 */
+	void writeTo(@NotNull Writer writer) throws IOException {
+		writer.write(array, offset, length);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+		return array[offset + index];
+	}
+
+	@NotNull
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException("Start: " + start + ", end: " + end + ", length: " + length);
+		return new String(array, offset + start, end - start);
+	}
+
+	@NotNull
+	@Override
+	public String toString() {
+		return new String(array, offset, length);
+	}
+}
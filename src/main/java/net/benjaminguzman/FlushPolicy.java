@@ -0,0 +1,154 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+
+/**
+ * Decides when the data written by a {@link Pipe} should be flushed to the output stream
+ * <p>
+ * The policy is consulted after every line is written (or every chunk of bytes, when the input is copied
+ * verbatim, see {@link Pipe.Builder#isPassthrough()}). Data is always flushed once the input stream has no more
+ * data, and whenever the internal buffer is full
+ * <p>
+ * Policies can be combined with {@link #or(FlushPolicy)} and {@link #and(FlushPolicy)}, e.g.
+ * <pre>
+ * FlushPolicy.everyLines(1000).or(FlushPolicy.whenInputIdle())
+ * </pre>
+ * flushes in batches of 1000 lines under load, but doesn't let data sit in the buffer when the input is idle
+ */
+@FunctionalInterface
+public interface FlushPolicy {
+	/**
+	 * Flushes after every line. Same as {@link Pipe.Builder#setAutoFlush(boolean)} with true
+	 */
+	FlushPolicy ALWAYS = pending -> true;
+
+	/**
+	 * Only flushes when the internal buffer is full or the input has no more data.
+	 * Same as {@link Pipe.Builder#setAutoFlush(boolean)} with false
+	 */
+	FlushPolicy NEVER = pending -> false;
+
+	/**
+	 * @param pending information about the data written since the last flush.
+	 *                The object is reused and it is only valid during the call
+	 * @return true if the output should be flushed now
+	 */
+	boolean shouldFlush(@NotNull Pending pending);
+
+	/**
+	 * @return a policy that flushes when this or the other policy says so
+	 */
+	@NotNull
+	default FlushPolicy or(@NotNull FlushPolicy other) {
+		return pending -> shouldFlush(pending) || other.shouldFlush(pending);
+	}
+
+	/**
+	 * @return a policy that flushes only when both this and the other policy say so
+	 */
+	@NotNull
+	default FlushPolicy and(@NotNull FlushPolicy other) {
+		return pending -> shouldFlush(pending) && other.shouldFlush(pending);
+	}
+
+	/**
+	 * @param lines number of lines
+	 * @return a policy that flushes once the given number of lines have been written since the last flush
+	 * @throws IllegalArgumentException if lines is not positive
+	 */
+	@NotNull
+	static FlushPolicy everyLines(long lines) {
+		if (lines <= 0)
+			throw new IllegalArgumentException("Number of lines must be positive. Given: " + lines);
+		return pending -> pending.lines() >= lines;
+	}
+
+	/**
+	 * @param bytes number of bytes
+	 * @return a policy that flushes once the given number of bytes have been written since the last flush
+	 * @throws IllegalArgumentException if bytes is not positive
+	 * @see Pending#bytes()
+	 */
+	@NotNull
+	static FlushPolicy everyBytes(long bytes) {
+		if (bytes <= 0)
+			throw new IllegalArgumentException("Number of bytes must be positive. Given: " + bytes);
+		return pending -> pending.bytes() >= bytes;
+	}
+
+	/**
+	 * Notice data is only flushed when a new line is written, so the last lines may be kept in the buffer for
+	 * longer than the interval if no more lines come. Combine it with {@link #whenInputIdle()} to avoid that
+	 *
+	 * @param interval minimum time between flushes
+	 * @return a policy that flushes at most once every interval
+	 */
+	@NotNull
+	static FlushPolicy atMostEvery(@NotNull Duration interval) {
+		long nanos = interval.toNanos();
+		return pending -> pending.nanos() >= nanos;
+	}
+
+	/**
+	 * This gives low latency when the input is idle and batching when it is under load
+	 *
+	 * @return a policy that flushes when there are no more bytes immediately available in the input
+	 */
+	@NotNull
+	static FlushPolicy whenInputIdle() {
+		return Pending::isInputIdle;
+	}
+
+	/**
+	 * Information about the data that has been written but not flushed
+	 */
+	interface Pending {
+		/**
+		 * @return number of lines written since the last flush
+		 */
+		long lines();
+
+		/**
+		 * @return number of bytes written since the last flush
+		 */
+		long bytes();
+
+		/**
+		 * @return nanoseconds elapsed since the last flush
+		 */
+		long nanos();
+
+		/**
+		 * @return true if there are no more bytes immediately available in the input,
+		 * i.e. reading from it would block
+		 */
+		boolean isInputIdle();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Keeps count of the data written since the last flush and asks a {@link FlushPolicy} whether to flush
+ * <p>
+ * Elapsed time and input idleness are computed only if the policy asks for them
+ */
+final class FlushState implements FlushPolicy.Pending {
+	/**
+	 * Tells if the input has no more bytes immediately available
+	 */
+	@FunctionalInterface
+	interface IdleProbe {
+		boolean isIdle() throws IOException;
+	}
+
+	@NotNull
+	private final FlushPolicy policy;
+
+	@NotNull
+	private final IdleProbe idleProbe;
+
+	private long lines;
+	private long bytes;
+	private long lastFlushNanos = System.nanoTime();
+
+	FlushState(@NotNull FlushPolicy policy, @NotNull IdleProbe idleProbe) {
+		this.policy = policy;
+		this.idleProbe = idleProbe;
+	}
+
+	/**
+	 * Registers a written line (or chunk) and tells if the output should be flushed now.
+	 * If so, the counters are reset
+	 *
+	 * @param bytes number of bytes (or characters) written
+	 */
+	boolean wrote(long bytes) {
+		++this.lines;
+		this.bytes += bytes;
+		if (!policy.shouldFlush(this))
+			return false;
+
+		this.lines = 0;
+		this.bytes = 0;
+		this.lastFlushNanos = System.nanoTime();
+		return true;
+	}
+
+	@Override
+	public long lines() {
+		return lines;
+	}
+
+	@Override
+	public long bytes() {
+		return bytes;
+	}
+
+	@Override
+	public long nanos() {
+		return System.nanoTime() - lastFlushNanos;
+	}
+
+	@Override
+	public boolean isInputIdle() {
+		try {
+			return idleProbe.isIdle();
+		} catch (IOException e) {
+			return true; // can't tell, so don't keep data in the buffer
+		}
+	}
+}
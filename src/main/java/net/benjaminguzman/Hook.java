@@ -0,0 +1,231 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * A pattern and the callback to run when it is found within a line, optionally limited to a number of calls
+ * or a period of time
+ * <p>
+ * Once a hook has been called as many times as allowed, or its deadline has passed, it is removed from the pipe,
+ * so its pattern is no longer evaluated. When every hook of a pipe has been removed lines are not matched at all
+ * (e.g. a hook waiting for a service to start costs nothing after the service has started)
+ * <p>
+ * Hooks with a higher priority (see {@link #withPriority(int)}) are evaluated and called before the others,
+ * and hooks with the same priority keep the order they were given
+ * <p>
+ * Instances are immutable. Hooks are compared by identity, so the same pattern can be hooked several times
+ *
+ * @see Pipe.Builder#addHook(Hook)
+ */
+public final class Hook {
+	@NotNull
+	private final Pattern pattern;
+
+	@Nullable
+	private final Consumer<String> consumer;
+
+	@Nullable
+	private final MatchHook matchHook;
+
+	private final long maxCalls;
+
+	@Nullable
+	private final Duration timeout;
+
+	private final int priority;
+
+	/**
+	 * true if the hook is always called in the thread matching lines, even if there is a hook executor
+	 */
+	private final boolean inline;
+
+	/**
+	 * Not null if this is not a hook but a line filter, searched in the same scan as the hooks
+	 */
+	@Nullable
+	private final LineFilter filter;
+
+	private Hook(
+		@NotNull Pattern pattern,
+		@Nullable Consumer<String> consumer,
+		@Nullable MatchHook matchHook,
+		long maxCalls,
+		@Nullable Duration timeout,
+		int priority,
+		boolean inline,
+		@Nullable LineFilter filter
+	) {
+		this.pattern = pattern;
+		this.consumer = consumer;
+		this.matchHook = matchHook;
+		this.maxCalls = maxCalls;
+		this.timeout = timeout;
+		this.priority = priority;
+		this.inline = inline;
+		this.filter = filter;
+	}
+
+	/**
+	 * @param pattern  pattern to search within every line
+	 * @param consumer called with the full line every time the pattern is found
+	 * @return a hook without limits
+	 */
+	@NotNull
+	public static Hook of(@NotNull Pattern pattern, @NotNull Consumer<String> consumer) {
+		return new Hook(pattern, consumer, null, Long.MAX_VALUE, null, 0, false, null);
+	}
+
+	/**
+	 * @param pattern   pattern to search within every line
+	 * @param matchHook called with the match result and the position of the line every time the pattern is found
+	 * @return a hook without limits
+	 */
+	@NotNull
+	public static Hook of(@NotNull Pattern pattern, @NotNull MatchHook matchHook) {
+		return new Hook(pattern, null, matchHook, Long.MAX_VALUE, null, 0, false, null);
+	}
+
+	/**
+	 * @return a copy of this hook that is removed after being called once
+	 */
+	@NotNull
+	public Hook once() {
+		return times(1);
+	}
+
+	/**
+	 * @param maxCalls number of times the hook is called before being removed
+	 * @return a copy of this hook that is removed after being called the given number of times
+	 */
+	@NotNull
+	public Hook times(long maxCalls) {
+		if (maxCalls <= 0)
+			throw new IllegalArgumentException("Maximum number of calls must be positive. Given: " + maxCalls);
+		return new Hook(pattern, consumer, matchHook, maxCalls, timeout, priority, inline, null);
+	}
+
+	/**
+	 * @param timeout time after which the hook is removed, counted from the moment the pipe starts running
+	 *                (or the hook is added to a running pipe). Lines read after that are not matched against it
+	 * @return a copy of this hook that is removed once the timeout has passed
+	 */
+	@NotNull
+	public Hook expiresAfter(@NotNull Duration timeout) {
+		if (timeout.isNegative())
+			throw new IllegalArgumentException("Timeout can't be negative. Given: " + timeout);
+		return new Hook(pattern, consumer, matchHook, maxCalls, timeout, priority, inline, null);
+	}
+
+	/**
+	 * @param priority hooks with higher priority are evaluated (and called) first. Default is 0.
+	 *                 If only the first match of each line is wanted (see
+	 *                 {@link Pipe.Builder#setFirstMatchOnly(boolean)}), the most specific or most frequent
+	 *                 hooks should have the highest priority
+	 * @return a copy of this hook with the given priority
+	 */
+	@NotNull
+	public Hook withPriority(int priority) {
+		return new Hook(pattern, consumer, matchHook, maxCalls, timeout, priority, inline, null);
+	}
+
+	/**
+	 * @return a hook standing for the filter, so its pattern is searched along with the hooks. It is never called
+	 */
+	@NotNull
+	static Hook filter(@NotNull LineFilter filter) {
+		return new Hook(filter.getPattern(), null, null, Long.MAX_VALUE, null, 0, false, filter);
+	}
+
+	/**
+	 * @return a copy of this hook that is called in the thread matching lines, even if there is a hook executor.
+	 * Used for hooks that only complete a future, so they're also evaluated before the other hooks and don't count
+	 * as the first match of a line (see {@link Pipe.Builder#setFirstMatchOnly(boolean)})
+	 */
+	@NotNull
+	Hook inline() {
+		return new Hook(pattern, consumer, matchHook, maxCalls, timeout, priority, true, null);
+	}
+
+	@NotNull
+	public Pattern getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return maximum number of calls, or {@link Long#MAX_VALUE} if the number of calls is not limited
+	 */
+	public long getMaxCalls() {
+		return maxCalls;
+	}
+
+	/**
+	 * @return time after which the hook is removed, or null if it doesn't expire
+	 */
+	@Nullable
+	public Duration getTimeout() {
+		return timeout;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	@Nullable
+	Consumer<String> consumer() {
+		return consumer;
+	}
+
+	@Nullable
+	MatchHook matchHook() {
+		return matchHook;
+	}
+
+	boolean isInline() {
+		return inline;
+	}
+
+	@Nullable
+	LineFilter filter() {
+		return filter;
+	}
+
+	@Override
+	public String toString() {
+		return "Hook{" +
+			"pattern=" + pattern +
+			", maxCalls=" + (maxCalls == Long.MAX_VALUE ? "unlimited" : maxCalls) +
+			", timeout=" + timeout +
+			", priority=" + priority +
+			'}';
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.MatchResult;
+
+/**
+ * Runs hook consumers (and {@link MatchHook}s) on an {@link Executor} through a bounded queue, so slow consumers don't stall
+ * the thread reading and writing the streams
+ * <p>
+ * At most one task is submitted to the executor at any given time, hence consumers are called one at a time
+ * and in the same order they were dispatched (except for consumers executed by the caller thread when
+ * using {@link OverflowPolicy#CALLER_RUNS})
+ */
+final class HookDispatcher implements Runnable {
+	@NotNull
+	private final Executor executor;
+
+	@NotNull
+	private final OverflowPolicy overflowPolicy;
+
+	@Nullable
+	private final Consumer<? super Exception> onException;
+
+	@NotNull
+	private final ArrayBlockingQueue<Event> queue;
+
+	/**
+	 * true while there is a task (this runnable) submitted to the executor
+	 */
+	@NotNull
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	@NotNull
+	private final LongAdder dropped = new LongAdder();
+
+	HookDispatcher(
+		@NotNull Executor executor,
+		int capacity,
+		@NotNull OverflowPolicy overflowPolicy,
+		@Nullable Consumer<? super Exception> onException
+	) {
+		this.executor = executor;
+		this.overflowPolicy = overflowPolicy;
+		this.onException = onException;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * Enqueues the execution of the consumer with the given line
+	 *
+	 * @param consumer the hook consumer
+	 * @param line     the line that triggered the hook
+	 */
+	void dispatch(@NotNull Consumer<String> consumer, @NotNull String line) {
+		enqueue(new Event(consumer, line));
+	}
+
+	/**
+	 * Enqueues the execution of the match hook with the given arguments
+	 *
+	 * @see MatchHook#onMatch(String, MatchResult, long, long, long)
+	 */
+	void dispatch(
+		@NotNull MatchHook hook,
+		@NotNull String line,
+		@NotNull MatchResult match,
+		long lineNumber,
+		long byteOffset,
+		long readNanos
+	) {
+		enqueue(new MatchEvent(hook, line, match, lineNumber, byteOffset, readNanos));
+	}
+
+	private void enqueue(@NotNull Event event) {
+		switch (overflowPolicy) {
+			case BLOCK:
+				try {
+					queue.put(event);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					dropped.increment();
+					return;
+				}
+				break;
+			case DROP_OLDEST:
+				while (!queue.offer(event))
+					if (queue.poll() != null)
+						dropped.increment();
+				break;
+			case DROP_NEWEST:
+				if (!queue.offer(event)) {
+					dropped.increment();
+					return;
+				}
+				break;
+			case CALLER_RUNS:
+				if (!queue.offer(event)) {
+					invoke(event);
+					return;
+				}
+				break;
+		}
+
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				run();
+			}
+		}
+	}
+
+	/**
+	 * Drains the queue calling every enqueued consumer
+	 */
+	@Override
+	public void run() {
+		do {
+			Event event;
+			while ((event = queue.poll()) != null)
+				invoke(event);
+			scheduled.set(false);
+			// an event may have been enqueued after the last poll but before the flag was cleared
+		} while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+	}
+
+	private void invoke(@NotNull Event event) {
+		try {
+			event.invoke();
+		} catch (RuntimeException e) {
+			if (onException != null)
+				onException.accept(e);
+		}
+	}
+
+	/**
+	 * @return number of events that were discarded because the queue was full
+	 */
+	long getDropped() {
+		return dropped.sum();
+	}
+
+	private static class Event {
+		@Nullable
+		private final Consumer<String> consumer;
+
+		@NotNull
+		final String line;
+
+		private Event(@Nullable Consumer<String> consumer, @NotNull String line) {
+			this.consumer = consumer;
+			this.line = line;
+		}
+
+		void invoke() {
+			consumer.accept(line);
+		}
+	}
+
+	private static final class MatchEvent extends Event {
+		@NotNull
+		private final MatchHook hook;
+
+		@NotNull
+		private final MatchResult match;
+
+		private final long lineNumber;
+		private final long byteOffset;
+		private final long readNanos;
+
+		private MatchEvent(
+			@NotNull MatchHook hook,
+			@NotNull String line,
+			@NotNull MatchResult match,
+			long lineNumber,
+			long byteOffset,
+			long readNanos
+		) {
+			super(null, line);
+			this.hook = hook;
+			this.match = match;
+			this.lineNumber = lineNumber;
+			this.byteOffset = byteOffset;
+			this.readNanos = readNanos;
+		}
+
+		@Override
+		void invoke() {
+			hook.onMatch(line, match, lineNumber, byteOffset, readNanos);
+		}
+	}
+}
@@ -0,0 +1,1120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled set of hooks that finds every hook matching a line with a single scan of it
+ * <p>
+ * Patterns are classified when the matcher is created:
+ * <ul>
+ *     <li>Pure literals (e.g. "Service is running") are searched only with an {@link AhoCorasick} automaton</li>
+ *     <li>Regular expressions requiring a literal (e.g. "Service is (up|running)" or ".*ERROR \\d+") use the
+ *     longest such literal as a prefilter in the same automaton. The regex is evaluated only if the literal was
+ *     found</li>
+ *     <li>Any other regular expression is always evaluated</li>
+ * </ul>
+ * Regular expressions are evaluated with a {@link Matcher} per pattern, which is reused for every line
+ * <p>
+ * If every hook has a literal, lines given as bytes are only decoded and scanned if they contain the first byte
+ * of some literal (searched with {@link ByteScanner}), which discards most lines without looking at each character.
+ * <p>
+ * Hooks are called in order of priority (see {@link Hook#withPriority(int)}), and hooks with the same priority in the
+ * same order they were given. If only the first match is wanted, the remaining patterns of the line are not
+ * evaluated once a hook is called, except for inline hooks ({@link Hook#inline()}), which are evaluated before the
+ * others and don't count as a match. Hooks limited to a number of calls or a period of time
+ * (see {@link Hook}) are skipped once they expire, and {@link #withoutExpired()} creates a matcher without them,
+ * so they're no longer searched for
+ * <p>
+ * Line filters (see {@link LineFilter}) are given as hooks that are never called ({@link Hook#filter(LineFilter)}),
+ * so their patterns are searched in the same scan. They're kept before every other hook, and the first one found
+ * within a complete line is given by {@link #filterFound()}
+ * <p>
+ * Lines are matched as a {@link CharSequence}, and a {@link String} is only created (once per line) if a hook
+ * is called
+ * <p>
+ * Instances are not thread safe, as they reuse internal buffers
+ */
+final class HookMatcher {
+	/**
+	 * Flags that don't change the meaning of a pattern made only of literal characters
+	 */
+	private static final int LITERAL_SAFE_FLAGS = Pattern.LITERAL | Pattern.MULTILINE | Pattern.DOTALL
+		| Pattern.UNIX_LINES;
+
+	/**
+	 * Maximum number of distinct first bytes for the prefilter to pay off
+	 */
+	private static final int MAX_PREFILTER_BYTES = 3;
+
+	/**
+	 * Timeouts of at least this long never expire, as their deadlines can't be compared with {@link System#nanoTime()}
+	 */
+	private static final Duration MAX_TIMEOUT = Duration.ofNanos(Long.MAX_VALUE / 2);
+
+	/**
+	 * Order in which hooks are evaluated: filters first, then inline hooks, then by descending priority
+	 */
+	private static final Comparator<Hook> ORDER = Comparator.comparing((Hook hook) -> hook.filter() == null)
+		.thenComparing(hook -> !hook.isInline())
+		.thenComparing(Comparator.comparingInt(Hook::getPriority).reversed());
+
+	@NotNull
+	private final Pattern[] patterns;
+
+	/**
+	 * Matcher of each pattern, created the first time the pattern is evaluated and reused for every line
+	 */
+	private final Matcher[] matchers;
+
+	@NotNull
+	private final Hook[] hooks;
+
+	/**
+	 * Number of hooks standing for line filters, which are the first ones
+	 */
+	private final int filters;
+
+	/**
+	 * Number of inline hooks (see {@link Hook#inline()}), which are right after the filters. They don't count as
+	 * the first match of a line, so they neither prevent nor are prevented by calls to the other hooks
+	 */
+	private final int inlines;
+
+	/**
+	 * First filter found within the last complete line, or null if none was found
+	 */
+	@Nullable
+	private LineFilter filterFound;
+
+	/**
+	 * Number of calls left for each hook ({@link Long#MAX_VALUE} if unlimited). 0 if the hook has expired
+	 */
+	private final long[] remaining;
+
+	/**
+	 * {@link System#nanoTime()} after which each hook expires ({@link Long#MAX_VALUE} if it doesn't).
+	 * null if no hook expires
+	 */
+	@Nullable
+	private final long[] deadlines;
+	private final boolean hasDeadlines;
+	private long nextDeadline;
+
+	/**
+	 * true if some hook has expired, so {@link #withoutExpired()} should be used from now on
+	 */
+	private boolean expired;
+
+	/**
+	 * Index of the literal (in the automaton) for each hook, or -1 if the hook has no literal
+	 */
+	private final int[] literalIds;
+
+	/**
+	 * true if the literal of the hook is the whole pattern, i.e. the regex doesn't need to be evaluated
+	 */
+	private final boolean[] exact;
+
+	/**
+	 * Literal of each hook, used to build the match result of exact hooks
+	 */
+	private final String[] hookLiterals;
+
+	@Nullable
+	private final AhoCorasick automaton;
+
+	/**
+	 * First bytes of the literals, for lines given as bytes. null if lines can't be prefiltered
+	 */
+	@Nullable
+	private final byte[] firstBytes;
+
+	/**
+	 * Literals found in the current line. Reused for every line
+	 */
+	private final boolean[] found;
+
+	/**
+	 * Hooks already called for the current partial line (see {@link #matchPartial(CharSequence)}), or for the line
+	 * being delivered (see {@link #deliver(ParallelHooks.Batch)})
+	 */
+	private final boolean[] calledOnPartial;
+	private boolean anyCalledOnPartial;
+
+	/**
+	 * If not null, consumers are called through this dispatcher instead of the current thread
+	 */
+	@Nullable
+	private final HookDispatcher dispatcher;
+
+	/**
+	 * true if at most one hook is called per line: the first one (in order of priority) whose pattern is found
+	 */
+	private final boolean firstMatchOnly;
+
+	@Nullable
+	private final Charset bytesCharset;
+
+	/**
+	 * Index of each hook, for {@link #deliver(ParallelHooks.Batch)}. Created the first time it is needed
+	 */
+	@Nullable
+	private IdentityHashMap<Hook, Integer> indexes;
+
+	/**
+	 * Position of the line being matched, given to match hooks. See {@link #setPosition(long, long, long)}
+	 */
+	private long lineNumber;
+	private long byteOffset = -1;
+	private long readNanos;
+
+	HookMatcher(@NotNull Map<Pattern, Consumer<String>> hooks) {
+		this(toHooks(hooks), null, null, false);
+	}
+
+	/**
+	 * @param hooks          hooks to call, in order (hooks with higher priority are moved before the others)
+	 * @param dispatcher     if not null, hooks are called through it
+	 * @param bytesCharset   charset of the lines given as bytes (see
+	 *                       {@link #match(byte[], int, int, ByteLineDecoder)}), or null if lines are only given as
+	 *                       characters
+	 * @param firstMatchOnly if true, at most one hook is called per line
+	 */
+	HookMatcher(
+		@NotNull List<Hook> hooks,
+		@Nullable HookDispatcher dispatcher,
+		@Nullable Charset bytesCharset,
+		boolean firstMatchOnly
+	) {
+		this(sortedByPriority(hooks), dispatcher, bytesCharset, firstMatchOnly);
+	}
+
+	private HookMatcher(
+		@NotNull Hook[] hooks,
+		@Nullable HookDispatcher dispatcher,
+		@Nullable Charset bytesCharset,
+		boolean firstMatchOnly
+	) {
+		this(
+			hooks,
+			Arrays.stream(hooks).mapToLong(Hook::getMaxCalls).toArray(),
+			deadlinesOf(Arrays.asList(hooks), System.nanoTime()),
+			dispatcher,
+			bytesCharset,
+			firstMatchOnly
+		);
+	}
+
+	private HookMatcher(
+		@NotNull Hook[] hooks,
+		long[] remaining,
+		@Nullable long[] deadlines,
+		@Nullable HookDispatcher dispatcher,
+		@Nullable Charset bytesCharset,
+		boolean firstMatchOnly
+	) {
+		this.dispatcher = dispatcher;
+		this.firstMatchOnly = firstMatchOnly;
+		this.bytesCharset = bytesCharset;
+		this.readNanos = System.nanoTime();
+		int n = hooks.length;
+		this.hooks = hooks;
+		this.remaining = remaining;
+		this.hasDeadlines = deadlines != null;
+		this.deadlines = deadlines;
+		this.patterns = new Pattern[n];
+		this.matchers = new Matcher[n];
+		this.literalIds = new int[n];
+		this.exact = new boolean[n];
+		this.hookLiterals = new String[n];
+		this.calledOnPartial = new boolean[n];
+		for (int i = 0; i < n; ++i)
+			patterns[i] = hooks[i].getPattern();
+		int filters = 0;
+		while (filters < n && hooks[filters].filter() != null)
+			++filters;
+		this.filters = filters;
+		int inlines = 0;
+		while (filters + inlines < n && hooks[filters + inlines].isInline())
+			++inlines;
+		this.inlines = inlines;
+		if (hasDeadlines)
+			updateNextDeadline();
+
+		List<String> literals = new ArrayList<>();
+		for (int i = 0; i < n; ++i) {
+			String literal = literalOf(patterns[i]);
+			exact[i] = literal != null;
+			if (literal == null)
+				literal = requiredLiteralOf(patterns[i]);
+			hookLiterals[i] = literal;
+
+			if (literal == null || literal.isEmpty()) {
+				literalIds[i] = -1;
+			} else {
+				literalIds[i] = literals.size();
+				literals.add(literal);
+			}
+		}
+
+		this.automaton = literals.isEmpty() ? null : new AhoCorasick(literals.toArray(new String[0]));
+		this.found = new boolean[literals.size()];
+		// a line without literals can only be discarded if every hook has one
+		this.firstBytes = bytesCharset != null && literals.size() == n ? firstBytesOf(literals, bytesCharset) : null;
+	}
+
+	@NotNull
+	private static List<Hook> toHooks(@NotNull Map<Pattern, Consumer<String>> hooks) {
+		List<Hook> list = new ArrayList<>(hooks.size());
+		hooks.forEach((pattern, consumer) -> list.add(Hook.of(pattern, consumer)));
+		return list;
+	}
+
+	/**
+	 * @return the hooks sorted by descending priority, after the filters. Hooks with the same priority keep
+	 * their order
+	 */
+	@NotNull
+	private static Hook[] sortedByPriority(@NotNull List<Hook> hooks) {
+		Hook[] sorted = hooks.toArray(new Hook[0]);
+		// object sorting is stable
+		Arrays.sort(sorted, ORDER);
+		return sorted;
+	}
+
+	/**
+	 * @return the deadline of each hook counted from the given time, or null if no hook expires
+	 */
+	@Nullable
+	private static long[] deadlinesOf(@NotNull List<Hook> hooks, long now) {
+		long[] deadlines = null;
+		for (int i = 0; i < hooks.size(); ++i) {
+			Duration timeout = hooks.get(i).getTimeout();
+			if (timeout == null)
+				continue;
+			if (deadlines == null)
+				deadlines = noDeadlines(hooks.size());
+			deadlines[i] = deadlineOf(timeout, now);
+		}
+		return deadlines;
+	}
+
+	private static long deadlineOf(@NotNull Duration timeout, long now) {
+		// timeouts longer than ~146 years are the same as no timeout
+		return timeout.compareTo(MAX_TIMEOUT) >= 0 ? Long.MAX_VALUE : now + timeout.toNanos();
+	}
+
+	private static long[] noDeadlines(int n) {
+		long[] deadlines = new long[n];
+		Arrays.fill(deadlines, Long.MAX_VALUE);
+		return deadlines;
+	}
+
+	/**
+	 * @return true if some hook was called as many times as allowed or its deadline passed
+	 */
+	boolean hasExpired() {
+		return expired;
+	}
+
+	/**
+	 * @return a matcher with the hooks that haven't expired, in the same state as this one (including the hooks
+	 * called for the current partial line and the position), or null if every hook has expired
+	 */
+	@Nullable
+	HookMatcher withoutExpired() {
+		return withChanges(List.of(), List.of(), Set.of());
+	}
+
+	/**
+	 * @param first   hooks to add before the current ones. Their timeouts are counted from now
+	 * @param last    hooks to add after the current ones. Their timeouts are counted from now
+	 * @param removed hooks to remove
+	 * @return a matcher with the given changes and without the expired hooks, in the same state as this one,
+	 * or null if no hook is left
+	 * @see #withoutExpired()
+	 */
+	@Nullable
+	HookMatcher withChanges(@NotNull List<Hook> first, @NotNull List<Hook> last, @NotNull Set<Hook> removed) {
+		// hooks of the new matcher, and the index of each one in this matcher (-1 for the new ones)
+		List<Hook> liveHooks = new ArrayList<>(first);
+		List<Integer> sources = new ArrayList<>(Collections.nCopies(first.size(), -1));
+		for (int i = 0; i < hooks.length; ++i) {
+			if (remaining[i] > 0 && !removed.contains(hooks[i])) {
+				liveHooks.add(hooks[i]);
+				sources.add(i);
+			}
+		}
+		liveHooks.addAll(last);
+		sources.addAll(Collections.nCopies(last.size(), -1));
+		int n = liveHooks.size();
+		if (n == 0)
+			return null;
+
+		// keep the hooks sorted by priority, even if new hooks have a different one
+		Integer[] order = new Integer[n];
+		for (int j = 0; j < n; ++j)
+			order[j] = j;
+		Arrays.sort(order, Comparator.comparing(liveHooks::get, ORDER));
+
+		Hook[] sortedHooks = new Hook[n];
+		long[] liveRemaining = new long[n];
+		long[] liveDeadlines = null;
+		boolean[] livePartial = new boolean[n];
+		long now = System.nanoTime();
+		for (int j = 0; j < n; ++j) {
+			Hook hook = liveHooks.get(order[j]);
+			int i = sources.get(order[j]);
+			sortedHooks[j] = hook;
+			long deadline;
+			if (i == -1) {
+				liveRemaining[j] = hook.getMaxCalls();
+				deadline = hook.getTimeout() == null ? Long.MAX_VALUE : deadlineOf(hook.getTimeout(), now);
+			} else {
+				liveRemaining[j] = remaining[i];
+				livePartial[j] = calledOnPartial[i];
+				deadline = hasDeadlines ? deadlines[i] : Long.MAX_VALUE;
+			}
+			if (deadline != Long.MAX_VALUE) {
+				if (liveDeadlines == null)
+					liveDeadlines = noDeadlines(n);
+				liveDeadlines[j] = deadline;
+			}
+		}
+
+		HookMatcher matcher = new HookMatcher(
+			sortedHooks,
+			liveRemaining,
+			liveDeadlines,
+			dispatcher,
+			bytesCharset,
+			firstMatchOnly
+		);
+		System.arraycopy(livePartial, 0, matcher.calledOnPartial, 0, n);
+		matcher.anyCalledOnPartial = anyCalledOnPartial;
+		matcher.setPosition(lineNumber, byteOffset, readNanos);
+		return matcher;
+	}
+
+	/**
+	 * Expires the hooks whose deadline is before the time of the current line
+	 */
+	private void expireDeadlines() {
+		for (int i = 0; i < deadlines.length; ++i) {
+			if (deadlines[i] != Long.MAX_VALUE && readNanos - deadlines[i] >= 0) {
+				remaining[i] = 0;
+				deadlines[i] = Long.MAX_VALUE;
+				expired = true;
+			}
+		}
+		updateNextDeadline();
+	}
+
+	private void updateNextDeadline() {
+		nextDeadline = Long.MAX_VALUE;
+		for (long deadline : deadlines)
+			if (deadline != Long.MAX_VALUE && (nextDeadline == Long.MAX_VALUE || deadline - nextDeadline < 0))
+				nextDeadline = deadline;
+	}
+
+	/**
+	 * @return the distinct first bytes of the literals encoded in the charset, or null if the charset is not
+	 * ASCII-compatible or there are too many of them
+	 */
+	@Nullable
+	private static byte[] firstBytesOf(@NotNull List<String> literals, @NotNull Charset charset) {
+		if (!LineWriter.isAsciiCompatible(charset))
+			return null;
+
+		CharsetEncoder encoder = charset.newEncoder();
+		byte[] bytes = new byte[MAX_PREFILTER_BYTES];
+		int n = 0;
+		for (String literal : literals) {
+			String first = literal.substring(0, Character.charCount(literal.codePointAt(0)));
+			// the replacement character may come from malformed bytes, which are not its encoding
+			if (first.equals("\uFFFD") || !encoder.canEncode(first))
+				return null;
+
+			byte b = first.getBytes(charset)[0];
+			int i = 0;
+			while (i < n && bytes[i] != b)
+				++i;
+			if (i < n)
+				continue;
+			if (n == MAX_PREFILTER_BYTES)
+				return null;
+			bytes[n++] = b;
+		}
+		return Arrays.copyOf(bytes, n);
+	}
+
+	/**
+	 * Sets the position of the lines given from now on, which is given to match hooks
+	 *
+	 * @see MatchHook#onMatch(String, MatchResult, long, long, long)
+	 */
+	void setPosition(long lineNumber, long byteOffset, long readNanos) {
+		this.lineNumber = lineNumber;
+		this.byteOffset = byteOffset;
+		this.readNanos = readNanos;
+	}
+
+	/**
+	 * Calls every hook whose pattern is found within the given line
+	 *
+	 * @param line the line of text. It is not kept after this method returns
+	 * @return number of hooks whose pattern was found
+	 */
+	int match(@NotNull CharSequence line) {
+		int calls = match(line, false);
+		lineEnded();
+		return calls;
+	}
+
+	/**
+	 * Same as {@link #match(CharSequence)}, for a line given as bytes in the charset given to the constructor.
+	 * The line is decoded only if it may match
+	 *
+	 * @param decoder decoder for the charset of the line
+	 */
+	int match(byte[] bytes, int offset, int length, @NotNull ByteLineDecoder decoder) {
+		if (mayMatch(bytes, offset, length))
+			return match(decoder.decode(bytes, offset, length));
+		filterFound = null;
+		lineEnded();
+		return 0;
+	}
+
+	/**
+	 * Calls every hook whose pattern is found within a line that is not complete yet
+	 * (e.g. a prompt like "Password: ")
+	 * <p>
+	 * A hook is called at most once per line: hooks called here are not called again for the same line,
+	 * neither by this method nor by {@link #match(CharSequence)} when the line is complete.
+	 * Notice patterns anchored at the end of the line ($) may match a partial line
+	 *
+	 * @param partial the characters of the line received so far. It is not kept after this method returns
+	 * @return number of hooks whose pattern was found
+	 */
+	int matchPartial(@NotNull CharSequence partial) {
+		return match(partial, true);
+	}
+
+	/**
+	 * Same as {@link #matchPartial(CharSequence)}, for a line given as bytes
+	 *
+	 * @see #match(byte[], int, int, ByteLineDecoder)
+	 */
+	int matchPartial(byte[] bytes, int offset, int length, @NotNull ByteLineDecoder decoder) {
+		return mayMatch(bytes, offset, length) ? matchPartial(decoder.decode(bytes, offset, length)) : 0;
+	}
+
+	/**
+	 * Hooks whose deadline has passed at the time of the current line (see {@link #setPosition(long, long, long)})
+	 * are expired first, so {@link #hasExpired()} tells it even if the line is discarded
+	 *
+	 * @return false if no hook can match the line given as bytes, i.e. it doesn't need to be decoded
+	 */
+	boolean mayMatch(byte[] bytes, int offset, int length) {
+		expireIfDeadlinePassed();
+		return firstBytes == null || ByteScanner.indexOfAny(bytes, offset, offset + length, firstBytes) >= 0;
+	}
+
+	/**
+	 * @return the matcher of the i-th pattern, reset to the given line
+	 */
+	@NotNull
+	private Matcher matcher(int i, @NotNull CharSequence line) {
+		Matcher matcher = matchers[i];
+		if (matcher == null)
+			return matchers[i] = patterns[i].matcher(line);
+		return matcher.reset(line);
+	}
+
+	/**
+	 * Forgets the hooks called for the partial line
+	 */
+	private void lineEnded() {
+		if (anyCalledOnPartial) {
+			Arrays.fill(calledOnPartial, false);
+			anyCalledOnPartial = false;
+		}
+	}
+
+	private int match(@NotNull CharSequence line, boolean partial) {
+		expireIfDeadlinePassed();
+		scan(line);
+		if (!partial)
+			filterFound = firstFilter(line);
+
+		// if the first match was already called for the partial line, only inline hooks may be called
+		int end = firstMatchOnly && firstCalledOnPartial() ? filters + inlines : patterns.length;
+		int calls = 0;
+		String lineString = null;
+		for (int i = filters; i < end; ++i) {
+			if ((anyCalledOnPartial && calledOnPartial[i]) || remaining[i] == 0 || !isFound(i, line))
+				continue;
+
+			if (lineString == null)
+				lineString = line.toString();
+			call(i, lineString, hooks[i].matchHook() == null ? null : resultOf(i, lineString));
+			++calls;
+
+			if (partial) {
+				calledOnPartial[i] = true;
+				anyCalledOnPartial = true;
+			}
+			if (firstMatchOnly && i >= filters + inlines)
+				break;
+		}
+		return calls;
+	}
+
+	/**
+	 * @return true if a hook other than the inline ones was called for the current partial line
+	 */
+	private boolean firstCalledOnPartial() {
+		if (!anyCalledOnPartial)
+			return false;
+		for (int i = filters + inlines; i < hooks.length; ++i)
+			if (calledOnPartial[i])
+				return true;
+		return false;
+	}
+
+	/**
+	 * Finds the hooks whose pattern is found within the line, without calling them. Used to evaluate the hooks
+	 * in other threads, each with its own matcher (see {@link #evaluatorOf(Hook[])})
+	 *
+	 * @param lineIndex index of the line in the batch
+	 * @param batch     batch to add the matches to
+	 */
+	void find(@NotNull String line, int lineIndex, @NotNull ParallelHooks.Batch batch) {
+		scan(line);
+		for (int i = filters; i < patterns.length; ++i) {
+			if (isFound(i, line)) {
+				batch.addMatch(lineIndex, hooks[i], hooks[i].matchHook() == null ? null : resultOf(i, line));
+				if (firstMatchOnly && i >= filters + inlines)
+					return;
+			}
+		}
+	}
+
+	/**
+	 * Finds the first filter within a line, without evaluating the hooks. Used when hooks are evaluated in other
+	 * threads, as the line must be filtered before being written
+	 *
+	 * @return the first filter found within the line, or null if none was found
+	 */
+	@Nullable
+	LineFilter filter(@NotNull CharSequence line) {
+		if (filters == 0)
+			return null;
+		scan(line);
+		return firstFilter(line);
+	}
+
+	/**
+	 * @return the first filter found within the last complete line given to {@link #match(CharSequence)}
+	 * (or {@link #match(byte[], int, int, ByteLineDecoder)}), or null if none was found
+	 */
+	@Nullable
+	LineFilter filterFound() {
+		return filterFound;
+	}
+
+	/**
+	 * @return the first filter found within the line. The literals of the line must have been scanned
+	 */
+	@Nullable
+	private LineFilter firstFilter(@NotNull CharSequence line) {
+		for (int i = 0; i < filters; ++i)
+			if (isFound(i, line))
+				return hooks[i].filter();
+		return null;
+	}
+
+	/**
+	 * Calls the hooks found in a batch of lines evaluated by other threads (see {@link #find(String, int,
+	 * ParallelHooks.Batch)}), in line order, as {@link #match(CharSequence)} would have called them.
+	 * Hooks that are no longer in this matcher, or expired, are not called. If only the first match is wanted and
+	 * the (non-inline) hook found can't be called, the line is matched again in this thread, as another hook may
+	 * match it
+	 *
+	 * @return number of hooks called
+	 */
+	int deliver(@NotNull ParallelHooks.Batch batch) {
+		if (indexes == null) {
+			indexes = new IdentityHashMap<>(hooks.length);
+			for (int i = 0; i < hooks.length; ++i)
+				indexes.put(hooks[i], i);
+		}
+
+		int calls = 0;
+		int match = 0;
+		for (int line = 0; line < batch.size(); ++line) {
+			if (match < batch.matches() && batch.matchLine(match) == line) {
+				setPosition(batch.lineNumber(line), batch.byteOffset(line), batch.readNanos(line));
+				expireIfDeadlinePassed();
+			}
+			boolean rematch = false;
+			for (; match < batch.matches() && batch.matchLine(match) == line; ++match) {
+				Hook hook = batch.matchHook(match);
+				boolean first = firstMatchOnly && !hook.isInline();
+				Integer i = indexes.get(hook);
+				if (i == null || remaining[i] == 0) {
+					rematch |= first;
+					continue;
+				}
+				if (anyCalledOnPartial && (calledOnPartial[i] || (first && firstCalledOnPartial())))
+					continue;
+				call(i, batch.line(line), batch.matchResult(match));
+				++calls;
+				if (firstMatchOnly && !first) {
+					// so matching the line again doesn't call it twice
+					calledOnPartial[i] = true;
+					anyCalledOnPartial = true;
+				}
+			}
+			if (rematch)
+				calls += match(batch.line(line), false);
+			lineEnded();
+		}
+		return calls;
+	}
+
+	/**
+	 * @param firstMatchOnly if true, only the first hook found within each line is added to the batch
+	 * @return a matcher to evaluate the given hooks with {@link #find(String, int, ParallelHooks.Batch)}
+	 */
+	@NotNull
+	static HookMatcher evaluatorOf(@NotNull Hook[] hooks, boolean firstMatchOnly) {
+		long[] remaining = new long[hooks.length];
+		Arrays.fill(remaining, Long.MAX_VALUE);
+		return new HookMatcher(hooks, remaining, null, null, null, firstMatchOnly);
+	}
+
+	/**
+	 * @return the hooks of this matcher, in order. The array must not be modified, and it is the same as long as
+	 * the matcher is the same
+	 */
+	@NotNull
+	Hook[] hooks() {
+		return hooks;
+	}
+
+	/**
+	 * @return true if there are hooks besides the filters
+	 */
+	boolean hasHooks() {
+		return filters < hooks.length;
+	}
+
+	boolean isFirstMatchOnly() {
+		return firstMatchOnly;
+	}
+
+	private void expireIfDeadlinePassed() {
+		if (hasDeadlines && nextDeadline != Long.MAX_VALUE && readNanos - nextDeadline >= 0)
+			expireDeadlines();
+	}
+
+	/**
+	 * Finds the literals within the line
+	 */
+	private void scan(@NotNull CharSequence line) {
+		if (automaton != null) {
+			Arrays.fill(found, false);
+			automaton.scan(line, found);
+		}
+	}
+
+	/**
+	 * @return true if the pattern of the i-th hook is found within the line. The literals of the line must have
+	 * been scanned
+	 */
+	private boolean isFound(int i, @NotNull CharSequence line) {
+		int literalId = literalIds[i];
+		if (literalId != -1 && !found[literalId])
+			return false;
+		return exact[i] || matcher(i, line).find();
+	}
+
+	/**
+	 * @return the match of the i-th hook, which was just found within the line by {@link #isFound(int, CharSequence)}
+	 */
+	@NotNull
+	private MatchResult resultOf(int i, @NotNull String line) {
+		return exact[i]
+			? new LiteralMatch(line, line.indexOf(hookLiterals[i]), hookLiterals[i].length())
+			: matchers[i].toMatchResult();
+	}
+
+	/**
+	 * Calls the i-th hook (in this thread or through the dispatcher) and counts the call
+	 *
+	 * @param result the match. Only needed if the hook is a {@link MatchHook}
+	 */
+	private void call(int i, @NotNull String line, @Nullable MatchResult result) {
+		if (remaining[i] != Long.MAX_VALUE && --remaining[i] == 0)
+			expired = true;
+
+		HookDispatcher dispatcher = hooks[i].isInline() ? null : this.dispatcher;
+		MatchHook hook = hooks[i].matchHook();
+		if (hook == null) {
+			if (dispatcher == null)
+				hooks[i].consumer().accept(line);
+			else
+				dispatcher.dispatch(hooks[i].consumer(), line);
+		} else if (dispatcher == null) {
+			hook.onMatch(line, result, lineNumber, byteOffset, readNanos);
+		} else {
+			dispatcher.dispatch(hook, line, result, lineNumber, byteOffset, readNanos);
+		}
+	}
+
+	/**
+	 * @return the literal string the pattern matches, or null if the pattern is not a literal
+	 * (contains metacharacters or flags that change how characters are compared)
+	 */
+	@Nullable
+	static String literalOf(@NotNull Pattern pattern) {
+		if ((pattern.flags() & ~LITERAL_SAFE_FLAGS) != 0)
+			return null;
+
+		String regex = pattern.pattern();
+		if ((pattern.flags() & Pattern.LITERAL) != 0)
+			return regex.isEmpty() ? null : regex;
+
+		StringBuilder literal = new StringBuilder(regex.length());
+		int end = parseLiteral(regex, 0, literal);
+		return end == regex.length() && literal.length() > 0 ? literal.toString() : null;
+	}
+
+	/**
+	 * Finds the literal strings that any match of the pattern must contain, e.g. "ERROR " for ".*ERROR \d+",
+	 * and returns the longest one
+	 * <p>
+	 * Only sequences of literal characters at the top level of the regex are considered (not those inside groups),
+	 * and parsing is conservative: anything that is not clearly literal ends the current sequence
+	 *
+	 * @return the longest literal string that any match of the pattern contains, or null if there is no such
+	 * literal
+	 */
+	@Nullable
+	static String requiredLiteralOf(@NotNull Pattern pattern) {
+		if ((pattern.flags() & ~LITERAL_SAFE_FLAGS) != 0)
+			return null;
+
+		String regex = pattern.pattern();
+		if ((pattern.flags() & Pattern.LITERAL) != 0)
+			return regex.isEmpty() ? null : regex;
+		if (hasTopLevelAlternation(regex) || hasInlineFlags(regex))
+			return null;
+
+		String longest = null;
+		StringBuilder literal = new StringBuilder(regex.length());
+		int i = 0;
+		int len = regex.length();
+		while (i < len) {
+			literal.setLength(0);
+			i = parseLiteral(regex, i, literal);
+
+			// a quantifier applies to the last literal character, so that character is not required
+			// (which may be a surrogate pair)
+			if (i < len && "?*{".indexOf(regex.charAt(i)) != -1 && literal.length() > 0)
+				literal.setLength(literal.length() - Character.charCount(literal.codePointBefore(literal.length())));
+
+			if (literal.length() > 0 && (longest == null || literal.length() > longest.length()))
+				longest = literal.toString();
+
+			if (i < len)
+				i = skipElement(regex, i);
+		}
+		return longest;
+	}
+
+	/**
+	 * Parses the longest sequence of literal characters starting at the given index of the regex
+	 *
+	 * @param regex   the regular expression
+	 * @param from    index of the first character to parse
+	 * @param literal the parsed characters are appended here
+	 * @return index of the first character in the regex that is not part of the literal
+	 */
+	private static int parseLiteral(@NotNull String regex, int from, @NotNull StringBuilder literal) {
+		int i = from;
+		int len = regex.length();
+		while (i < len) {
+			char c = regex.charAt(i);
+			if (c != '\\') {
+				if (".[]{}()*+?^$|".indexOf(c) != -1)
+					return i;
+				literal.append(c);
+				++i;
+				continue;
+			}
+
+			if (i + 1 >= len)
+				return i;
+
+			char escaped = regex.charAt(i + 1);
+			if (escaped == 'Q') {
+				int quoteEnd = regex.indexOf("\\E", i + 2);
+				if (quoteEnd == -1)
+					quoteEnd = len;
+				literal.append(regex, i + 2, quoteEnd);
+				i = Math.min(quoteEnd + 2, len);
+				continue;
+			}
+
+			char unescaped;
+			switch (escaped) {
+				case 't':
+					unescaped = '\t';
+					break;
+				case 'n':
+					unescaped = '\n';
+					break;
+				case 'r':
+					unescaped = '\r';
+					break;
+				case 'f':
+					unescaped = '\f';
+					break;
+				case 'a':
+					unescaped = '\u0007';
+					break;
+				case 'e':
+					unescaped = '\u001B';
+					break;
+				default:
+					// a backslash before a non-alphabetic character always means that character
+					if (Character.isLetterOrDigit(escaped))
+						return i;
+					unescaped = escaped;
+			}
+			literal.append(unescaped);
+			i += 2;
+		}
+		return i;
+	}
+
+	/**
+	 * Skips an element of the regex that is not a literal character: a quantifier, a group, a character class,
+	 * an anchor or an escape sequence. Elements not recognized are skipped as a single character
+	 *
+	 * @param i index of the first character of the element
+	 * @return index of the first character after the element
+	 */
+	private static int skipElement(@NotNull String regex, int i) {
+		int len = regex.length();
+		char c = regex.charAt(i);
+		if (c == '(' || c == '[') {
+			char close = c == '(' ? ')' : ']';
+			++i;
+			// a ']' at the beginning of a class is a literal character
+			if (c == '[' && i < len && regex.charAt(i) == '^')
+				++i;
+			if (c == '[' && i < len && regex.charAt(i) == ']')
+				++i;
+
+			// skip to the closing character, skipping nested elements (a '(' in a class is taken as a group,
+			// which skips more than needed, but never less)
+			while (i < len) {
+				char d = regex.charAt(i);
+				if (d == close)
+					return i + 1;
+				i = d == '\\' || d == '(' || d == '[' ? skipElement(regex, i) : i + 1;
+			}
+			return len;
+		}
+
+		if (c == '{') {
+			int end = regex.indexOf('}', i);
+			return end == -1 ? len : end + 1;
+		}
+
+		if (c != '\\' || i + 1 >= len)
+			return i + 1;
+
+		// escape sequences that aren't literal characters (e.g. \d, \b, \p{L}, \x41, \1)
+		char escaped = regex.charAt(i + 1);
+		i += 2;
+		if (escaped == 'Q') {
+			int quoteEnd = regex.indexOf("\\E", i);
+			return quoteEnd == -1 ? len : quoteEnd + 2;
+		}
+		if (i < len && regex.charAt(i) == '{')
+			return skipElement(regex, i);
+		switch (escaped) {
+			case 'x':
+				return Math.min(i + 2, len);
+			case 'u':
+				return Math.min(i + 4, len);
+			case 'c':
+			case 'p':
+			case 'P':
+				return Math.min(i + 1, len);
+			case 'k':
+				int end = regex.indexOf('>', i);
+				return end == -1 ? len : end + 1;
+			default:
+				// back references and octal escapes
+				while (i < len && Character.isDigit(regex.charAt(i)))
+					++i;
+				return i;
+		}
+	}
+
+	/**
+	 * @return true if the regex may contain inline flags (e.g. (?i)), which may change how characters are compared
+	 */
+	private static boolean hasInlineFlags(@NotNull String regex) {
+		for (int i = regex.indexOf("(?"); i != -1; i = regex.indexOf("(?", i + 1)) {
+			if (i + 2 < regex.length()) {
+				char c = regex.charAt(i + 2);
+				if (Character.isLetter(c) || c == '-')
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the regex has an alternation (|) which is not inside a group or a character class
+	 */
+	private static boolean hasTopLevelAlternation(@NotNull String regex) {
+		int depth = 0;
+		boolean inClass = false;
+		for (int i = 0, len = regex.length(); i < len; ++i) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 < len && regex.charAt(i + 1) == 'Q') {
+					int quoteEnd = regex.indexOf("\\E", i + 2);
+					if (quoteEnd == -1)
+						return false;
+					i = quoteEnd + 1;
+				} else {
+					++i;
+				}
+			} else if (inClass) {
+				if (c == ']')
+					inClass = false;
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == '(') {
+				++depth;
+			} else if (c == ')') {
+				--depth;
+			} else if (c == '|' && depth == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Result of a match of a literal pattern, which has no groups besides the whole match
+	 */
+	private static final class LiteralMatch implements MatchResult {
+		@NotNull
+		private final String line;
+
+		private final int start;
+		private final int end;
+
+		private LiteralMatch(@NotNull String line, int start, int length) {
+			this.line = line;
+			this.start = start;
+			this.end = start + length;
+		}
+
+		@Override
+		public int start() {
+			return start;
+		}
+
+		@Override
+		public int start(int group) {
+			checkGroup(group);
+			return start;
+		}
+
+		@Override
+		public int end() {
+			return end;
+		}
+
+		@Override
+		public int end(int group) {
+			checkGroup(group);
+			return end;
+		}
+
+		@NotNull
+		@Override
+		public String group() {
+			return line.substring(start, end);
+		}
+
+		@NotNull
+		@Override
+		public String group(int group) {
+			checkGroup(group);
+			return group();
+		}
+
+		@Override
+		public int groupCount() {
+			return 0;
+		}
+
+		private static void checkGroup(int group) {
+			if (group != 0)
+				throw new IndexOutOfBoundsException("No group " + group);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.OutputStream;
+import java.util.regex.Pattern;
+
+/**
+ * A pattern and what to do with the lines in which it is found: write them (like grep), drop them (like grep -v),
+ * or write them to another stream instead of the output stream
+ * <p>
+ * Filters are evaluated in the order they were added, and the first one whose pattern is found within a line
+ * decides what to do with it. Lines not matching any filter are written to the output stream, unless there is
+ * a {@link Action#KEEP} filter, in which case they're dropped
+ * <p>
+ * Filter patterns are searched in the same scan of the line as hook patterns, and hooks are called for every line
+ * read, whether it is written, dropped or routed. Instances are immutable
+ *
+ * @see Pipe.Builder#addLineFilter(LineFilter)
+ */
+public final class LineFilter {
+	public enum Action {
+		/**
+		 * Write the line to the output stream
+		 */
+		KEEP,
+
+		/**
+		 * Don't write the line
+		 */
+		DROP,
+
+		/**
+		 * Write the line to another stream, with the same prefix, suffix and charset as the output stream
+		 */
+		ROUTE
+	}
+
+	@NotNull
+	private final Pattern pattern;
+
+	@NotNull
+	private final Action action;
+
+	@Nullable
+	private final OutputStream stream;
+
+	private LineFilter(@NotNull Pattern pattern, @NotNull Action action, @Nullable OutputStream stream) {
+		this.pattern = pattern;
+		this.action = action;
+		this.stream = stream;
+	}
+
+	/**
+	 * @return a filter writing the lines in which the pattern is found. Once a pipe has such a filter, lines not
+	 * matching any filter are dropped
+	 */
+	@NotNull
+	public static LineFilter keep(@NotNull Pattern pattern) {
+		return new LineFilter(pattern, Action.KEEP, null);
+	}
+
+	/**
+	 * @return a filter dropping the lines in which the pattern is found
+	 */
+	@NotNull
+	public static LineFilter drop(@NotNull Pattern pattern) {
+		return new LineFilter(pattern, Action.DROP, null);
+	}
+
+	/**
+	 * @param stream the lines in which the pattern is found are written here instead of the output stream.
+	 *               It is flushed as the output stream (see {@link Pipe.Builder#setFlushPolicy(FlushPolicy)}), but
+	 *               it is never closed by the pipe, and no header or footer is written to it
+	 * @return a filter routing lines to the given stream
+	 */
+	@NotNull
+	public static LineFilter route(@NotNull Pattern pattern, @NotNull OutputStream stream) {
+		return new LineFilter(pattern, Action.ROUTE, stream);
+	}
+
+	@NotNull
+	public Pattern getPattern() {
+		return pattern;
+	}
+
+	@NotNull
+	public Action getAction() {
+		return action;
+	}
+
+	/**
+	 * @return stream to which lines are routed, or null if the action is not {@link Action#ROUTE}
+	 */
+	@Nullable
+	public OutputStream getStream() {
+		return stream;
+	}
+
+	@Override
+	public String toString() {
+		return "LineFilter{" +
+			"pattern=" + pattern +
+			", action=" + action +
+			'}';
+	}
+}
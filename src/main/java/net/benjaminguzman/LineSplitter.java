@@ -0,0 +1,322 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Splits chunks of characters into lines, with the same semantics as {@link java.io.BufferedReader#readLine()}:
+ * a line is terminated by '\n', '\r' or "\r\n", and line terminators are not included in the lines
+ * <p>
+ * Characters can be fed in chunks of any size, the splitter keeps the partial line between calls
+ * <p>
+ * Lines are given as a reused {@link CharSlice} pointing either to the chunk being fed or to an internal buffer
+ * (for lines spanning several chunks), so no memory is allocated per line once the internal buffer has grown
+ * to the size of the longest line
+ * <p>
+ * If a maximum length is set (see {@link #setMaxLength(int, LongLinePolicy)}), the internal buffer never grows
+ * beyond it, and longer lines are given in pieces
+ */
+final class LineSplitter {
+	@FunctionalInterface
+	interface LineConsumer {
+		/**
+		 * @param line the line. It is only valid during this call
+		 */
+		void accept(@NotNull CharSlice line) throws IOException;
+	}
+
+	@NotNull
+	private final CharSlice view = new CharSlice();
+
+	/**
+	 * Characters of the current line that were given in previous chunks
+	 */
+	private char[] pending = new char[128];
+	private int pendingLength;
+
+	/**
+	 * true if the previous chunk ended with '\r', so a '\n' at the beginning of the next one must be skipped
+	 */
+	private boolean skipLF;
+
+	/**
+	 * true while a line is given to the consumer and there are more characters after it in the chunk
+	 */
+	private boolean moreInChunk;
+
+	/**
+	 * Number of characters of the partial line that have already been written (see {@link #markPartialWritten()}),
+	 * and whether any part of it was written or given as a piece
+	 */
+	private int partialWritten;
+	private boolean partialContinues;
+
+	/**
+	 * The same information for the line being given to the consumer
+	 */
+	private int lineWritten;
+	private boolean lineContinues;
+	private boolean linePiece;
+
+	private int maxLength = Integer.MAX_VALUE;
+
+	@NotNull
+	private LongLinePolicy longLinePolicy = LongLinePolicy.SPLIT;
+
+	/**
+	 * true if the rest of the current line must be discarded, because it was truncated
+	 */
+	private boolean discarding;
+
+	/**
+	 * @param maxLength maximum number of characters of a line
+	 * @param policy    what to do with longer lines. With {@link LongLinePolicy#SPLIT} every piece is given as
+	 *                  a line. With {@link LongLinePolicy#TRUNCATE} only the first piece is given (and
+	 *                  {@link #isPiece()} tells so). With {@link LongLinePolicy#STREAM} every piece is given (and
+	 *                  {@link #isPiece()} tells so), starting with the last half of the previous piece, which is
+	 *                  marked as written (see {@link #alreadyWritten()})
+	 */
+	void setMaxLength(int maxLength, @NotNull LongLinePolicy policy) {
+		this.maxLength = maxLength;
+		this.longLinePolicy = policy;
+	}
+
+	/**
+	 * Gives the consumer every line completed by the chunk
+	 */
+	void feed(char[] chars, int offset, int length, @NotNull LineConsumer consumer) throws IOException {
+		int end = offset + length;
+		int i = offset;
+		if (skipLF && i < end) {
+			if (chars[i] == '\n')
+				++i;
+			skipLF = false;
+		}
+
+		int start = i;
+		try {
+			for (; i < end; ++i) {
+				char c = chars[i];
+				if (c != '\n' && c != '\r')
+					continue;
+
+				// the '\n' of a "\r\n" terminator is not more input
+				int terminator = c == '\r' && i + 1 < end && chars[i + 1] == '\n' ? 2 : 1;
+				moreInChunk = i + terminator < end;
+				if (discarding) {
+					discarding = false;
+				} else if (pendingLength == 0 && i - start <= maxLength) {
+					consumer.accept(view.set(chars, start, i - start));
+				} else {
+					append(chars, start, i - start, consumer);
+					// the line may have been truncated while appending
+					if (discarding)
+						discarding = false;
+					else
+						givePending(consumer);
+				}
+
+				if (c == '\r') {
+					if (i + 1 == end)
+						skipLF = true;
+					else if (chars[i + 1] == '\n')
+						++i;
+				}
+				start = i + 1;
+			}
+		} finally {
+			moreInChunk = false;
+		}
+		append(chars, start, end - start, consumer);
+	}
+
+	/**
+	 * Gives the consumer the last line, if the input didn't end with a line terminator
+	 */
+	void finish(@NotNull LineConsumer consumer) throws IOException {
+		skipLF = false;
+		discarding = false;
+		if (pendingLength > 0)
+			givePending(consumer);
+	}
+
+	/**
+	 * @return number of characters at the beginning of the line being given to the consumer that were already
+	 * written, because they were part of a partial line (see {@link #markPartialWritten()}) or a previous piece
+	 */
+	int alreadyWritten() {
+		return lineWritten;
+	}
+
+	/**
+	 * @return true if the beginning of the line being given to the consumer was already written or given as
+	 * a piece, so it is a continuation (e.g. its prefix must not be written again)
+	 */
+	boolean isContinuation() {
+		return lineContinues;
+	}
+
+	/**
+	 * @return true if what is being given to the consumer is a piece of a long line, not a complete line
+	 * @see #setMaxLength(int, LongLinePolicy)
+	 */
+	boolean isPiece() {
+		return linePiece;
+	}
+
+	/**
+	 * @return number of characters of the current partial line, i.e. the characters after the last line terminator
+	 */
+	int partialLength() {
+		return pendingLength;
+	}
+
+	/**
+	 * @return a view of the current partial line. It is only valid until more characters are fed
+	 */
+	@NotNull
+	CharSlice partial() {
+		return view.set(pending, 0, pendingLength);
+	}
+
+	/**
+	 * @return number of characters of the current partial line that were already written
+	 * (see {@link #markPartialWritten()})
+	 */
+	int partialWritten() {
+		return partialWritten;
+	}
+
+	/**
+	 * @return true if the beginning of the current partial line was already written or given as a piece
+	 * @see #isContinuation()
+	 */
+	boolean isPartialContinuation() {
+		return partialContinues;
+	}
+
+	/**
+	 * Marks the current partial line as written, so {@link #alreadyWritten()} tells it when the line is complete
+	 */
+	void markPartialWritten() {
+		partialWritten = pendingLength;
+		partialContinues = true;
+	}
+
+	/**
+	 * @return true if the line being given to the consumer is not the last one of the chunk,
+	 * i.e. more lines are already available
+	 */
+	boolean hasMoreInChunk() {
+		return moreInChunk;
+	}
+
+	/**
+	 * Gives the consumer the line in the internal buffer
+	 */
+	private void givePending(@NotNull LineConsumer consumer) throws IOException {
+		view.set(pending, 0, pendingLength);
+		lineWritten = partialWritten;
+		lineContinues = partialContinues;
+		pendingLength = 0;
+		partialWritten = 0;
+		partialContinues = false;
+		try {
+			consumer.accept(view);
+		} finally {
+			lineWritten = 0;
+			lineContinues = false;
+		}
+	}
+
+	/**
+	 * Appends characters to the internal buffer. Pieces are given to the consumer whenever the buffer is full
+	 */
+	private void append(char[] chars, int start, int length, @NotNull LineConsumer consumer) throws IOException {
+		while (length > 0 && !discarding) {
+			int room = maxLength - pendingLength;
+			if (room == 0) {
+				givePiece(consumer);
+				continue;
+			}
+
+			int n = Math.min(room, length);
+			if (pendingLength + n > pending.length) {
+				int capacity = (int) Math.min(Math.max(pending.length * 2L, pendingLength + n), maxLength);
+				pending = Arrays.copyOf(pending, capacity);
+			}
+			System.arraycopy(chars, start, pending, pendingLength, n);
+			pendingLength += n;
+			start += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Gives the consumer the first piece of the (full) internal buffer
+	 */
+	private void givePiece(@NotNull LineConsumer consumer) throws IOException {
+		// don't split surrogate pairs
+		int length = pendingLength;
+		if (length > 1 && Character.isHighSurrogate(pending[length - 1]))
+			--length;
+
+		view.set(pending, 0, length);
+		lineWritten = Math.min(partialWritten, length);
+		lineContinues = partialContinues;
+		linePiece = longLinePolicy != LongLinePolicy.SPLIT;
+		try {
+			consumer.accept(view);
+		} finally {
+			lineWritten = 0;
+			lineContinues = false;
+			linePiece = false;
+		}
+
+		int keep = 0;
+		if (longLinePolicy == LongLinePolicy.TRUNCATE) {
+			discarding = true;
+			length = pendingLength;
+		} else if (longLinePolicy == LongLinePolicy.STREAM) {
+			keep = Math.min(maxLength / 2, length);
+			partialContinues = true;
+		}
+
+		int drop = length - keep;
+		System.arraycopy(pending, drop, pending, 0, pendingLength - drop);
+		pendingLength -= drop;
+		if (longLinePolicy == LongLinePolicy.STREAM) {
+			partialWritten = keep;
+		} else {
+			partialWritten = Math.max(0, partialWritten - drop);
+			partialContinues = partialWritten > 0;
+		}
+	}
+}
@@ -0,0 +1,405 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered byte-level writer of lines
+ * <p>
+ * Prefix, suffix and line terminator are given already encoded, so they're just copied into the buffer.
+ * Line bodies are either copied as bytes (when they're already in the output charset) or encoded into the
+ * buffer. For ASCII-compatible charsets, ASCII characters are stored directly, without using the encoder
+ * <p>
+ * If the output is a {@link GatheringByteChannel}, line bodies given as borrowed bytes (see
+ * {@link #writeLine(byte[], int, int, boolean)}) are not copied: the writer keeps a list of segments (ranges of
+ * the borrowed arrays and of its own buffer, which holds prefixes and suffixes) and writes all of them with a single
+ * {@link GatheringByteChannel#write(ByteBuffer[], int, int)} call
+ * <p>
+ * Once created, no memory is allocated for any line
+ */
+final class LineWriter {
+	/**
+	 * Maximum number of segments written at once. This is the usual limit (IOV_MAX) of the writev syscall
+	 */
+	private static final int MAX_SEGMENTS = 1024;
+
+	@NotNull
+	private final OutputStream out;
+
+	/**
+	 * Not null if writes are gathered
+	 */
+	@Nullable
+	private final GatheringByteChannel channel;
+
+	@NotNull
+	private final CharsetEncoder encoder;
+
+	private final boolean asciiCompatible;
+
+	private final byte[] prefix;
+
+	/**
+	 * Suffix followed by the line terminator
+	 */
+	private final byte[] terminator;
+
+	private final byte[] buffer;
+	private int position;
+
+	/**
+	 * Number of bytes moved from the buffer to the stream. Used to compute the length of encoded lines
+	 */
+	private long flushed;
+
+	/**
+	 * View of {@link #buffer} used by the encoder
+	 */
+	@NotNull
+	private final ByteBuffer bytes;
+
+	/**
+	 * Characters of the line being encoded are copied here, because a {@link CharBuffer} can't be
+	 * pointed to a different {@link CharSequence} without creating a new one
+	 */
+	@NotNull
+	private final CharBuffer chars = CharBuffer.allocate(256);
+
+	/**
+	 * Segments to be gathered, and the array each of them wraps. Views are reused as long as the array of the
+	 * segment in the same position doesn't change, which is the usual case as lines alternate between the
+	 * buffer and the array they were read into
+	 */
+	private final ByteBuffer[] segments;
+	private final byte[][] segmentArrays;
+	private int segmentCount;
+
+	/**
+	 * Start of the bytes in the buffer that are not in a segment yet
+	 */
+	private int mark;
+
+	/**
+	 * true if there are segments referencing borrowed arrays
+	 */
+	private boolean hasBorrowed;
+
+	/**
+	 * @param out        stream to write to
+	 * @param channel    if not null, the channel behind the stream. Borrowed line bodies are written to it without
+	 *                   copying them
+	 * @param charset    charset in which lines are encoded
+	 * @param bufferSize size of the buffer, in bytes
+	 * @param prefix     encoded prefix of every line, or null
+	 * @param suffix     encoded suffix of every line, or null
+	 * @param newLine    encoded line terminator
+	 */
+	LineWriter(
+		@NotNull OutputStream out,
+		@Nullable GatheringByteChannel channel,
+		@NotNull Charset charset,
+		int bufferSize,
+		@Nullable byte[] prefix,
+		@Nullable byte[] suffix,
+		byte[] newLine
+	) {
+		this.out = out;
+		this.channel = channel;
+		this.encoder = charset.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.asciiCompatible = isAsciiCompatible(charset);
+		this.prefix = prefix == null ? new byte[0] : prefix;
+
+		int suffixLength = suffix == null ? 0 : suffix.length;
+		this.terminator = new byte[suffixLength + newLine.length];
+		if (suffix != null)
+			System.arraycopy(suffix, 0, terminator, 0, suffixLength);
+		System.arraycopy(newLine, 0, terminator, suffixLength, newLine.length);
+
+		// at least room for any encoded character
+		this.buffer = new byte[Math.max(bufferSize, 16)];
+		this.bytes = ByteBuffer.wrap(buffer);
+		this.segments = channel == null ? null : new ByteBuffer[MAX_SEGMENTS];
+		this.segmentArrays = channel == null ? null : new byte[MAX_SEGMENTS][];
+	}
+
+	/**
+	 * @return true if ASCII characters are encoded as a single byte with the same value, and bytes of
+	 * non-ASCII characters are never in the ASCII range (so '\n' and '\r' bytes are always line terminators)
+	 */
+	static boolean isAsciiCompatible(@NotNull Charset charset) {
+		return charset.equals(StandardCharsets.UTF_8)
+			|| charset.equals(StandardCharsets.ISO_8859_1)
+			|| charset.equals(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Writes the prefix, the line encoded in the output charset, the suffix and the line terminator
+	 *
+	 * @return number of bytes written
+	 */
+	int writeLine(@NotNull CharSequence line) throws IOException {
+		return writeLine(line, 0, true, true);
+	}
+
+	/**
+	 * Writes (part of) a line encoded in the output charset
+	 *
+	 * @param line  the line
+	 * @param from  index of the first character to write. The characters before it are expected to have been
+	 *              written already
+	 * @param start if true, the prefix is written before the characters
+	 * @param end   if true, the suffix and line terminator are written after the characters
+	 * @return number of bytes written
+	 */
+	int writeLine(@NotNull CharSequence line, int from, boolean start, boolean end) throws IOException {
+		int initialPosition = position;
+		long flushed = this.flushed;
+		if (start)
+			write(prefix);
+
+		int len = line.length();
+		int i = from;
+		if (asciiCompatible) {
+			for (; i < len; ++i) {
+				char c = line.charAt(i);
+				if (c >= 0x80)
+					break;
+				if (position == buffer.length)
+					drain();
+				buffer[position++] = (byte) c;
+			}
+		}
+		if (i < len)
+			encode(line, i);
+
+		if (end)
+			write(terminator);
+		return (int) (this.flushed - flushed) + position - initialPosition;
+	}
+
+	/**
+	 * Writes the prefix, the given bytes (which are already in the output charset), the suffix and the line
+	 * terminator
+	 *
+	 * @param borrowed true if the content of the array won't change until {@link #releaseBorrowed()} is called.
+	 *                 In that case the bytes may be written without copying them
+	 * @return number of bytes written
+	 */
+	int writeLine(byte[] line, int offset, int length, boolean borrowed) throws IOException {
+		return writeLine(line, offset, length, borrowed, true, true);
+	}
+
+	/**
+	 * Writes (part of) a line given as bytes in the output charset
+	 *
+	 * @param start if true, the prefix is written before the bytes
+	 * @param end   if true, the suffix and line terminator are written after the bytes
+	 * @return number of bytes written
+	 * @see #writeLine(byte[], int, int, boolean)
+	 */
+	int writeLine(
+		byte[] line,
+		int offset,
+		int length,
+		boolean borrowed,
+		boolean start,
+		boolean end
+	) throws IOException {
+		if (start)
+			write(prefix);
+		if (channel != null && borrowed && length > 0) {
+			addSegment(line, offset, length);
+			hasBorrowed = true;
+		} else {
+			write(line, offset, length);
+		}
+		if (end)
+			write(terminator);
+		return (start ? prefix.length : 0) + length + (end ? terminator.length : 0);
+	}
+
+	/**
+	 * Writes any line referencing borrowed arrays, so the arrays can be modified.
+	 * The output stream is not flushed
+	 */
+	void releaseBorrowed() throws IOException {
+		if (hasBorrowed)
+			drain();
+	}
+
+	/**
+	 * Writes the value as an unsigned big-endian integer
+	 *
+	 * @param bytes number of bytes of the integer
+	 */
+	void writeLength(long value, int bytes) throws IOException {
+		if (buffer.length - position < bytes)
+			drain();
+		for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8)
+			buffer[position++] = (byte) (value >>> shift);
+	}
+
+	void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	void write(byte[] b, int offset, int length) throws IOException {
+		if (length > buffer.length - position) {
+			drain();
+			if (length > buffer.length) {
+				out.write(b, offset, length);
+				flushed += length;
+				return;
+			}
+		}
+		System.arraycopy(b, offset, buffer, position, length);
+		position += length;
+	}
+
+	/**
+	 * Writes the buffered bytes and flushes the stream
+	 */
+	void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+	/**
+	 * Flushes and closes the stream
+	 */
+	void close() throws IOException {
+		flush();
+		out.close();
+	}
+
+	/**
+	 * Encodes the characters of the line from the given index
+	 */
+	private void encode(@NotNull CharSequence line, int from) throws IOException {
+		int len = line.length();
+		encoder.reset();
+		chars.clear();
+		boolean endOfInput;
+		do {
+			int end = from + Math.min(chars.remaining(), len - from);
+			for (; from < end; ++from)
+				chars.put(line.charAt(from));
+			endOfInput = from == len;
+
+			chars.flip();
+			while (encoder.encode(chars, target(), endOfInput).isOverflow())
+				commitAndDrain();
+			position = bytes.position();
+			// an incomplete surrogate pair at the end of the chunk is kept for the next one
+			chars.compact();
+		} while (!endOfInput);
+
+		while (encoder.flush(target()).isOverflow())
+			commitAndDrain();
+		position = bytes.position();
+	}
+
+	@NotNull
+	private ByteBuffer target() {
+		bytes.limit(buffer.length);
+		bytes.position(position);
+		return bytes;
+	}
+
+	private void commitAndDrain() throws IOException {
+		position = bytes.position();
+		drain();
+	}
+
+	/**
+	 * Adds a segment, after the buffered bytes that are not in a segment yet
+	 */
+	private void addSegment(byte[] array, int offset, int length) throws IOException {
+		if (segmentCount + 2 > MAX_SEGMENTS)
+			drain();
+		closeRegion();
+		setSegment(array, offset, length);
+	}
+
+	/**
+	 * Adds the buffered bytes that are not in a segment yet as a segment
+	 */
+	private void closeRegion() {
+		if (position > mark) {
+			setSegment(buffer, mark, position - mark);
+			mark = position;
+		}
+	}
+
+	private void setSegment(byte[] array, int offset, int length) {
+		ByteBuffer view = segments[segmentCount];
+		if (view == null || segmentArrays[segmentCount] != array) {
+			view = ByteBuffer.wrap(array);
+			segments[segmentCount] = view;
+			segmentArrays[segmentCount] = array;
+		}
+		view.limit(offset + length).position(offset);
+		++segmentCount;
+	}
+
+	/**
+	 * Writes the buffered bytes (and segments) to the stream, without flushing it
+	 */
+	private void drain() throws IOException {
+		if (channel == null || segmentCount == 0) {
+			if (position == 0)
+				return;
+			out.write(buffer, 0, position);
+		} else {
+			closeRegion();
+			int first = 0;
+			while (first < segmentCount) {
+				channel.write(segments, first, segmentCount - first);
+				while (first < segmentCount && !segments[first].hasRemaining())
+					++first;
+			}
+			segmentCount = 0;
+			hasBorrowed = false;
+		}
+		flushed += position;
+		position = 0;
+		mark = 0;
+	}
+}
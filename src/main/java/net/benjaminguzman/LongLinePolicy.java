@@ -0,0 +1,52 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+/**
+ * What to do with lines longer than the maximum line length
+ *
+ * @see Pipe.Builder#setMaxLineLength(int, LongLinePolicy)
+ */
+public enum LongLinePolicy {
+	/**
+	 * Split the line into several lines of at most the maximum length. Each of them is written with prefix and
+	 * suffix, and hooks are tested against each of them
+	 */
+	SPLIT,
+
+	/**
+	 * Keep only the first characters of the line (up to the maximum length) followed by the truncation marker.
+	 * The rest of the line is discarded
+	 */
+	TRUNCATE,
+
+	/**
+	 * Write the line as it is read, without keeping more than the maximum length in memory. The prefix and suffix
+	 * are written once. Hooks are tested against a sliding window of the line (with an overlap of half the
+	 * maximum length), so a pattern is found only if its match is not longer than that overlap
+	 */
+	STREAM
+}
@@ -0,0 +1,53 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.regex.MatchResult;
+
+/**
+ * Hook called with the result of the match and the position of the line in the input, so the pattern doesn't need
+ * to be evaluated again to get its groups (e.g. the port of "listening on :(\d+)")
+ * <p>
+ * Position and time are given as primitives, so nothing is boxed or allocated for them
+ *
+ * @see Pipe.Builder#setMatchHooks(java.util.Map)
+ */
+@FunctionalInterface
+public interface MatchHook {
+	/**
+	 * @param line       the line that matched
+	 * @param match      the first match of the pattern within the line (offsets are relative to the line).
+	 *                   It doesn't change after this method returns
+	 * @param lineNumber number of the line in the input, starting at 1
+	 * @param byteOffset offset in the input of the first byte of the line, or -1 if it is not known because lines
+	 *                   are decoded before framing them (i.e. input and output charsets are not the same
+	 *                   UTF-8, ISO-8859-1 or US-ASCII charset)
+	 * @param readNanos  {@link System#nanoTime()} when the end of the line (or the part of it that matched) was read
+	 */
+	void onMatch(@NotNull String line, @NotNull MatchResult match, long lineNumber, long byteOffset, long readNanos);
+}
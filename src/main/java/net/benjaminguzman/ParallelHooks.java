@@ -0,0 +1,289 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.MatchResult;
+
+/**
+ * Evaluates hooks in batches of lines in an executor (e.g. a {@link java.util.concurrent.ForkJoinPool}),
+ * so many expensive patterns can be matched using several cores, while hooks are still called in line order
+ * <p>
+ * Batches are numbered in the order they're submitted and kept in a reorder buffer: a batch is delivered only
+ * after every batch before it, even if it was evaluated first. Delivering a batch means calling its hooks with
+ * {@link HookMatcher#deliver(Batch)} in the thread reading lines, so counting calls and expiring hooks works
+ * exactly as when lines are matched in that thread
+ * <p>
+ * Each thread of the executor evaluates patterns with its own {@link HookMatcher}, created for the hooks of the
+ * batch (i.e. created again only when hooks change)
+ * <p>
+ * Instances must be used by a single thread
+ */
+final class ParallelHooks {
+	/**
+	 * Matcher of the current thread of the executor, created for the hooks of the last batch it evaluated
+	 */
+	private static final ThreadLocal<HookMatcher> EVALUATOR = new ThreadLocal<>();
+
+	@NotNull
+	private final Executor executor;
+
+	private final int batchSize;
+
+	/**
+	 * true if only the first hook found within each line must be called (see {@link HookMatcher#isFirstMatchOnly()})
+	 */
+	private final boolean firstMatchOnly;
+
+	/**
+	 * Maximum number of batches submitted and not delivered. Once reached, the oldest batch must be delivered
+	 * before submitting another one
+	 */
+	private final int maxInFlight;
+
+	/**
+	 * Batches submitted and not delivered yet, in the order they were submitted
+	 */
+	@NotNull
+	private final ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+
+	/**
+	 * Batch being filled, or null if there are no lines to submit
+	 */
+	@Nullable
+	private Batch current;
+
+	private long nextSequence;
+
+	/**
+	 * Number of the next batch to deliver
+	 */
+	private long nextDelivery;
+
+	ParallelHooks(@NotNull Executor executor, int batchSize, int maxInFlight, boolean firstMatchOnly) {
+		this.executor = executor;
+		this.batchSize = batchSize;
+		this.firstMatchOnly = firstMatchOnly;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Adds a line to the current batch, which is submitted once it is full
+	 *
+	 * @param hooks the hooks to evaluate (see {@link HookMatcher#hooks()}). If they're not the same as the ones
+	 *              of the current batch, it is submitted first
+	 */
+	void add(@NotNull Hook[] hooks, @NotNull String line, long lineNumber, long byteOffset, long readNanos) {
+		if (current != null && current.hooks != hooks)
+			submit();
+		if (current == null)
+			current = new Batch(nextSequence++, hooks, firstMatchOnly, batchSize);
+
+		current.add(line, lineNumber, byteOffset, readNanos);
+		if (current.size == batchSize)
+			submit();
+	}
+
+	/**
+	 * Submits the current batch (if any), even if it is not full
+	 */
+	void submit() {
+		Batch batch = current;
+		if (batch == null)
+			return;
+
+		current = null;
+		inFlight.add(batch);
+		try {
+			executor.execute(batch);
+		} catch (RejectedExecutionException e) {
+			batch.run();
+		}
+	}
+
+	/**
+	 * @return true if the oldest batch must be delivered before submitting another one
+	 */
+	boolean isFull() {
+		return inFlight.size() >= maxInFlight;
+	}
+
+	/**
+	 * @param wait if true, waits until the oldest submitted batch has been evaluated
+	 * @return the oldest submitted batch, if it has been evaluated. null otherwise, or if no batch was submitted
+	 * @throws RuntimeException any exception thrown while evaluating the batch
+	 */
+	@Nullable
+	Batch poll(boolean wait) {
+		Batch batch = inFlight.peek();
+		if (batch == null || (!wait && !batch.evaluated.isDone()))
+			return null;
+
+		inFlight.poll();
+		assert batch.sequence == nextDelivery : "Batch " + batch.sequence + " delivered before " + nextDelivery;
+		++nextDelivery;
+		try {
+			batch.evaluated.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw (RuntimeException) e.getCause();
+		}
+		return batch;
+	}
+
+	/**
+	 * Lines whose hooks are evaluated together, and the matches found in them
+	 */
+	static final class Batch implements Runnable {
+		/**
+		 * Number of the batch, in the order batches were created
+		 */
+		private final long sequence;
+
+		@NotNull
+		private final Hook[] hooks;
+		private final boolean firstMatchOnly;
+
+		private final String[] lines;
+		private final long[] lineNumbers;
+		private final long[] byteOffsets;
+		private final long[] readNanos;
+		private int size;
+
+		/**
+		 * Matches found, in line order (and hook order within a line)
+		 */
+		private int[] matchLines = new int[16];
+		private Hook[] matchHooks = new Hook[16];
+		private MatchResult[] matchResults = new MatchResult[16];
+		private int matches;
+
+		@NotNull
+		private final CompletableFuture<Void> evaluated = new CompletableFuture<>();
+
+		private Batch(long sequence, @NotNull Hook[] hooks, boolean firstMatchOnly, int capacity) {
+			this.sequence = sequence;
+			this.hooks = hooks;
+			this.firstMatchOnly = firstMatchOnly;
+			this.lines = new String[capacity];
+			this.lineNumbers = new long[capacity];
+			this.byteOffsets = new long[capacity];
+			this.readNanos = new long[capacity];
+		}
+
+		private void add(@NotNull String line, long lineNumber, long byteOffset, long readNanos) {
+			lines[size] = line;
+			lineNumbers[size] = lineNumber;
+			byteOffsets[size] = byteOffset;
+			this.readNanos[size] = readNanos;
+			++size;
+		}
+
+		/**
+		 * Evaluates the hooks for every line. Run in a thread of the executor
+		 */
+		@Override
+		public void run() {
+			try {
+				HookMatcher evaluator = EVALUATOR.get();
+				if (evaluator == null || evaluator.hooks() != hooks || evaluator.isFirstMatchOnly() != firstMatchOnly) {
+					evaluator = HookMatcher.evaluatorOf(hooks, firstMatchOnly);
+					EVALUATOR.set(evaluator);
+				}
+				for (int i = 0; i < size; ++i)
+					evaluator.find(lines[i], i, this);
+				evaluated.complete(null);
+			} catch (RuntimeException | Error e) {
+				evaluated.completeExceptionally(e);
+			}
+		}
+
+		/**
+		 * Adds a match found while evaluating the batch
+		 *
+		 * @param result the match, or null if the hook doesn't need it
+		 */
+		void addMatch(int line, @NotNull Hook hook, @Nullable MatchResult result) {
+			if (matches == matchLines.length) {
+				matchLines = Arrays.copyOf(matchLines, matches * 2);
+				matchHooks = Arrays.copyOf(matchHooks, matches * 2);
+				matchResults = Arrays.copyOf(matchResults, matches * 2);
+			}
+			matchLines[matches] = line;
+			matchHooks[matches] = hook;
+			matchResults[matches] = result;
+			++matches;
+		}
+
+		int size() {
+			return size;
+		}
+
+		@NotNull
+		String line(int i) {
+			return lines[i];
+		}
+
+		long lineNumber(int i) {
+			return lineNumbers[i];
+		}
+
+		long byteOffset(int i) {
+			return byteOffsets[i];
+		}
+
+		long readNanos(int i) {
+			return readNanos[i];
+		}
+
+		int matches() {
+			return matches;
+		}
+
+		int matchLine(int match) {
+			return matchLines[match];
+		}
+
+		@NotNull
+		Hook matchHook(int match) {
+			return matchHooks[match];
+		}
+
+		@Nullable
+		MatchResult matchResult(int match) {
+			return matchResults[match];
+		}
+	}
+}
@@ -29,18 +29,177 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
 
 public class Pipe implements Runnable {
+	/**
+	 * Items put in the writer stage ring buffer when the input stream has no more data, or reading from it failed
+	 */
+	private static final Object END_OF_STREAM = new Object();
+	private static final Object ABORTED = new Object();
+
+	/**
+	 * Timeouts of at least this long are the same as waiting forever
+	 */
+	private static final Duration MAX_AWAIT_TIMEOUT = Duration.ofNanos(Long.MAX_VALUE);
+
+	private static final String VERBATIM_MESSAGE = "Lines are not matched because the input is copied verbatim. "
+		+ "Allow runtime hooks with Builder.setRuntimeHooks(true)";
+
 	@NotNull
 	private final Builder options;
 
+	@NotNull
+	private final LongAdder droppedLines = new LongAdder();
+
+	@Nullable
+	private final HookDispatcher hookDispatcher;
+
+	/**
+	 * Header, footer, prefix, suffix and line terminator encoded in the output charset.
+	 * null if they're not set
+	 */
+	@Nullable
+	private final byte[] header;
+
+	@Nullable
+	private final byte[] footer;
+
+	@Nullable
+	private final byte[] prefix;
+
+	@Nullable
+	private final byte[] suffix;
+
+	private final byte[] newLine;
+
+	/**
+	 * Truncation marker encoded in the output charset
+	 */
+	private final byte[] truncationMarker;
+
+	@NotNull
+	private final AtomicLong lines = new AtomicLong();
+
+	@NotNull
+	private final AtomicLong bytesWritten = new AtomicLong();
+
+	@NotNull
+	private final AtomicLong hookCalls = new AtomicLong();
+
+	private volatile long startNanos;
+	private volatile long endNanos;
+
+	/**
+	 * First exception reported while running the pipe
+	 */
+	@Nullable
+	private volatile Exception failure;
+
+	/**
+	 * Hooks added or removed while the pipe is running, which the thread reading lines hasn't applied yet
+	 */
+	@NotNull
+	private final Queue<HookChange> hookChanges = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Futures returned by {@link #awaitPatternAsync(Pattern, Duration)} that haven't completed yet
+	 */
+	@NotNull
+	private final Set<CompletableFuture<MatchResult>> awaiting = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * true once the input has no more data (or reading from it failed), so no more lines will be matched
+	 */
+	private volatile boolean inputEnded;
+
+	/**
+	 * Creates a pipe with the given options
+	 * <p>
+	 * Header, footer, prefix, suffix and truncation marker are encoded here, so changing them in the builder afterwards has no
+	 * effect on this pipe
+	 *
+	 * @param options the options
+	 */
 	public Pipe(@NotNull Builder options) {
 		this.options = options;
+		this.header = encode(options.header);
+		this.footer = encode(options.footer);
+		this.prefix = encode(options.prefix);
+		this.suffix = encode(options.suffix);
+		this.newLine = separator(options.recordFraming);
+		this.truncationMarker = encode(options.truncationMarker);
+		this.hookDispatcher = options.hookExecutor == null
+			? null
+			: new HookDispatcher(
+				options.hookExecutor,
+				options.hookQueueCapacity,
+				options.hookOverflowPolicy,
+				this::reportException
+			);
+	}
+
+	@Nullable
+	private byte[] encode(@Nullable String text) {
+		return text == null ? null : text.getBytes(options.outCharset);
+	}
+
+	/**
+	 * @return bytes written after every record
+	 */
+	private byte[] separator(@NotNull RecordFraming framing) {
+		switch (framing.kind()) {
+			case LINES:
+				return encode(System.lineSeparator());
+			case DELIMITER:
+				return framing.delimiter();
+			default:
+				return new byte[0];
+		}
+	}
+
+	@NotNull
+	public Builder getOptions() {
+		return options;
 	}
 
 	/**
@@ -53,61 +212,1515 @@ public class Pipe implements Runnable {
 	 * Read and write are both done in the same thread
 	 * <p>
 	 * Execution terminates when there is no more data in input stream or an exception occurs
+	 * <p>
+	 * If no line transformation is needed (see {@link Builder#isPassthrough()}) bytes are copied verbatim
+	 * from the input stream to the output stream, without decoding them into lines. In that case line
+	 * terminators are preserved as they are in the input
+	 * <p>
+	 * Moreover, if the pipe was built from channels (see {@link Builder#Builder(ReadableByteChannel,
+	 * WritableByteChannel)}) and one of them is a {@link FileChannel}, data is moved with
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)} or
+	 * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)} so the kernel can copy it without
+	 * passing through the java heap
 	 *
 	 * @see #initThread()
 	 */
-	@Override
-	public void run() {
-		final BufferedWriter writer = new BufferedWriter(
-			new OutputStreamWriter(options.outStream, options.outCharset)
+	@Override
+	public void run() {
+		startNanos = System.nanoTime();
+		try {
+			if (!options.isPassthrough())
+				runLines();
+			else if (options.inChannel != null && options.outChannel != null)
+				runChannels(options.inChannel, options.outChannel);
+			else
+				runPassthrough();
+		} finally {
+			endNanos = System.nanoTime();
+			endAwaiting();
+		}
+	}
+
+	/**
+	 * Waits until the pattern is found within a line of the input
+	 * <p>
+	 * Only lines read after this method is called are matched, so a line may be missed if the pipe is already
+	 * running. Use {@link #awaitPatternAsync(Pattern, Duration)} before starting the pipe to match every line
+	 *
+	 * @param pattern pattern to search
+	 * @param timeout maximum time to wait
+	 * @return the first match of the pattern
+	 * @throws TimeoutException      if the pattern was not found within the timeout
+	 * @throws EOFException          if the input ended (or reading from it failed) before the pattern was found
+	 * @throws InterruptedException  if the current thread is interrupted while waiting
+	 * @throws IllegalStateException if the pipe copies its input verbatim (see {@link Builder#isPassthrough()}),
+	 *                               i.e. it has no line transformations and runtime hooks are not allowed
+	 *                               ({@link Builder#setRuntimeHooks(boolean)})
+	 */
+	@NotNull
+	public MatchResult awaitPattern(
+		@NotNull Pattern pattern,
+		@NotNull Duration timeout
+	) throws TimeoutException, EOFException, InterruptedException {
+		CompletableFuture<MatchResult> future = awaitPatternAsync(pattern, timeout);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(false);
+			throw e;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof TimeoutException)
+				throw (TimeoutException) cause;
+			if (cause instanceof EOFException)
+				throw (EOFException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new CompletionException(cause);
+		}
+	}
+
+	/**
+	 * Adds a temporary hook that completes the returned future when the pattern is found within a line
+	 * (e.g. to wait until a service has started)
+	 * <p>
+	 * The hook has the highest priority, so it is called before the hooks of the pipe (only line filters are
+	 * evaluated before it), and it doesn't count as the first match of a line (see
+	 * {@link Builder#setFirstMatchOnly(boolean)}). It is called in the thread matching lines, even if there is a
+	 * hook executor, so the future completes as soon as the line is read. Dependent actions not run asynchronously
+	 * are run in that thread too, so they should be fast
+	 * <p>
+	 * It can be called before the pipe starts running, in which case every line is matched, or while it is
+	 * running, in which case only lines read from then on are matched. A pipe without other hooks or line
+	 * transformations must allow runtime hooks (see {@link Builder#setRuntimeHooks(boolean)}), so its input is
+	 * split into lines
+	 *
+	 * @param pattern pattern to search
+	 * @param timeout maximum time to wait
+	 * @return a future completed with the first match of the pattern, or completed exceptionally with a
+	 * {@link TimeoutException} if the pattern was not found within the timeout, an {@link EOFException} if the
+	 * input ended before it, or an {@link IllegalStateException} if the pipe copies its input verbatim
+	 * (see {@link Builder#isPassthrough()} and {@link Builder#setRuntimeHooks(boolean)}).
+	 * Cancelling the future removes the hook
+	 */
+	@NotNull
+	public CompletableFuture<MatchResult> awaitPatternAsync(@NotNull Pattern pattern, @NotNull Duration timeout) {
+		CompletableFuture<MatchResult> future = new CompletableFuture<>();
+		if (options.isPassthrough()) {
+			future.completeExceptionally(new IllegalStateException(VERBATIM_MESSAGE));
+			return future;
+		}
+
+		Hook hook = Hook.of(pattern, (line, match, lineNumber, byteOffset, readNanos) -> future.complete(match))
+			.withPriority(Integer.MAX_VALUE)
+			.once()
+			.expiresAfter(timeout)
+			.inline();
+		awaiting.add(future);
+		future.whenComplete((match, e) -> {
+			awaiting.remove(future);
+			if (e != null)
+				removeHook(hook);
+		});
+		hookChanges.add(new HookChange(hook, HookChange.Kind.FIRST));
+		if (timeout.compareTo(MAX_AWAIT_TIMEOUT) < 0)
+			future.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+		// the input may have ended before the future was added
+		if (inputEnded)
+			endAwaiting();
+		return future;
+	}
+
+	/**
+	 * Adds a hook to this pipe, even if it is running. It is called after the other hooks, for the lines read from
+	 * then on (its timeout, if any, is counted from then too)
+	 * <p>
+	 * This method is thread safe and doesn't block. Changes are applied by the thread reading lines before
+	 * processing the next chunk of input: it replaces its compiled set of hooks with a new one, so lines are never
+	 * matched against a set of hooks being modified, and no lock is needed to match them.
+	 * Changes made after the input has ended are ignored
+	 * <p>
+	 * A pipe built without hooks nor line transformations must allow runtime hooks
+	 * (see {@link Builder#setRuntimeHooks(boolean)}), otherwise it copies its input verbatim and lines can't be
+	 * matched
+	 *
+	 * @param hook the hook to add
+	 * @throws IllegalStateException if the pipe copies its input verbatim (see {@link Builder#isPassthrough()})
+	 * @see #removeHook(Hook)
+	 */
+	public void addHook(@NotNull Hook hook) {
+		if (options.isPassthrough())
+			throw new IllegalStateException(VERBATIM_MESSAGE);
+		if (!inputEnded)
+			hookChanges.add(new HookChange(hook, HookChange.Kind.LAST));
+	}
+
+	/**
+	 * Removes a hook from this pipe, even if it is running. Lines read from then on are not matched against it
+	 * <p>
+	 * Only hooks given as {@link Hook} instances (see {@link Builder#addHook(Hook)} and {@link #addHook(Hook)})
+	 * can be removed. Does nothing if the hook was not added or it has already expired
+	 *
+	 * @param hook the hook to remove
+	 * @see #addHook(Hook)
+	 */
+	public void removeHook(@NotNull Hook hook) {
+		if (!inputEnded)
+			hookChanges.add(new HookChange(hook, HookChange.Kind.REMOVE));
+	}
+
+	/**
+	 * Completes exceptionally the futures waiting for a pattern, as no more lines will be read
+	 */
+	private void endAwaiting() {
+		inputEnded = true;
+		hookChanges.clear();
+		if (awaiting.isEmpty())
+			return;
+
+		EOFException e = new EOFException("The input ended before the pattern was found");
+		for (CompletableFuture<MatchResult> future : awaiting)
+			future.completeExceptionally(e);
+	}
+
+	/**
+	 * Runs the pipe in the given executor
+	 *
+	 * @param executor executor to run the pipe
+	 * @return a handle to follow the execution of the pipe
+	 * @throws java.util.concurrent.RejectedExecutionException if the executor doesn't accept the task
+	 */
+	@NotNull
+	public PipeHandle start(@NotNull Executor executor) {
+		PipeHandle handle = new PipeHandle(this);
+		executor.execute(() -> runAndComplete(handle));
+		return handle;
+	}
+
+	/**
+	 * Runs the pipe in a new thread.
+	 * <p>
+	 * When running on Java 21 or newer, the thread is virtual, so thousands of pipes can be run without
+	 * reserving a stack for each of them. Otherwise, it is a platform daemon thread (like {@link #initThread()})
+	 *
+	 * @return a handle to follow the execution of the pipe
+	 */
+	@NotNull
+	public PipeHandle startVirtual() {
+		PipeHandle handle = new PipeHandle(this);
+		ThreadSupport.newThread(() -> runAndComplete(handle), "Pipe-Thread").start();
+		return handle;
+	}
+
+	private void runAndComplete(@NotNull PipeHandle handle) {
+		try {
+			run();
+		} catch (RuntimeException | Error e) {
+			handle.completion.completeExceptionally(e);
+			if (e instanceof Error)
+				throw e;
+			return;
+		}
+		complete(handle);
+	}
+
+	/**
+	 * Completes the handle with the final statistics, or with the first exception reported
+	 */
+	void complete(@NotNull PipeHandle handle) {
+		Exception e = failure;
+		if (e == null)
+			handle.completion.complete(getStats());
+		else
+			handle.completion.completeExceptionally(e);
+	}
+
+	/**
+	 * Passes the exception to the onException callback (if any) and keeps it if it is the first one
+	 */
+	private void reportException(@NotNull Exception e) {
+		if (failure == null)
+			failure = e;
+		if (options.onException != null)
+			options.onException.accept(e);
+	}
+
+	/**
+	 * Reads the input stream in chunks and writes every line (with its prefix and suffix) to the output stream
+	 * encoded with the output charset
+	 * <p>
+	 * If both charsets are the same and ASCII-compatible (e.g. UTF-8), lines are framed directly in the bytes read
+	 * and copied to the output without decoding and encoding them (they're only decoded for the hooks). Otherwise,
+	 * the input is decoded with the input charset and lines are framed in a reused char buffer
+	 * (see {@link LineSplitter}). Either way, no memory is allocated per line unless a hook is called or a writer
+	 * stage is configured (lines given to the writer thread are copied)
+	 * <p>
+	 * If a writer stage is configured, lines are written by a second thread
+	 * (see {@link #runWriterStage(SpscRingBuffer, LineWriter)})
+	 */
+	private void runLines() {
+		final LineWriter writer = newLineWriter();
+		final SpscRingBuffer<Object> ring = options.writerStageCapacity > 0
+			? new SpscRingBuffer<>(options.writerStageCapacity)
+			: null;
+		final Thread writerThread = ring == null ? null : initWriterThread(ring, writer);
+		boolean reachedEnd = false;
+		LineHandler handler = null;
+		try {
+			// write header
+			if (writerThread != null) writerThread.start();
+			else if (header != null) writer.write(header);
+
+			// read from input stream and write to output stream
+			boolean byteFramed = isByteFramed();
+			handler = new LineHandler(writer, ring, byteFramed, newParallelHooks());
+			if (byteFramed)
+				readByteLines(handler);
+			else
+				readCharLines(handler);
+			reachedEnd = true;
+
+			// write footer
+			if (ring == null && footer != null) writer.write(footer);
+		} catch (IOException e) {
+			reportException(e);
+		} finally {
+			if (handler != null)
+				handler.flushRoutes();
+			if (ring == null) {
+				closeWriter(writer);
+			} else {
+				ring.put(reachedEnd ? END_OF_STREAM : ABORTED);
+				try {
+					writerThread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads lines framed as bytes. Used when the input and output charsets are the same and ASCII-compatible
+	 */
+	private void readByteLines(@NotNull LineHandler handler) throws IOException {
+		try (InputStream in = options.inStream) {
+			ByteLineSplitter splitter = newByteLineSplitter(handler.ring != null);
+			handler.flushState = new FlushState(
+				options.flushPolicy,
+				() -> !splitter.hasMoreInChunk() && in.available() == 0
+			);
+			ByteLineSplitter.LineConsumer onLine = (bytes, offset, length) ->
+				handler.line(splitter, bytes, offset, length);
+
+			long partialTimeout = partialLineTimeoutNanos(handler.ring);
+			byte[] buffer = new byte[options.bufferSize];
+			// lines within the read buffer can be written without copying them, see LineWriter
+			handler.borrowable = buffer;
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				handler.readNanos = System.nanoTime();
+				handler.applyHookChanges();
+				splitter.feed(buffer, 0, n, onLine);
+				handler.writer.releaseBorrowed();
+				if (handler.parallel != null)
+					handler.chunkEnded(in.available() == 0);
+
+				if (splitter.partialLength() == 0)
+					continue;
+				handler.matchPartial(splitter);
+				if (partialTimeout >= 0
+					&& splitter.partialLength() > splitter.partialWritten()
+					&& !awaitInput(() -> in.available() == 0, partialTimeout))
+					handler.writePartial(splitter);
+			}
+			splitter.finish(onLine);
+			handler.deliverAll();
+		}
+	}
+
+	/**
+	 * Reads lines decoded with the input charset
+	 */
+	private void readCharLines(@NotNull LineHandler handler) throws IOException {
+		try (Reader reader = new InputStreamReader(options.inStream, options.inCharset)) {
+			LineSplitter splitter = newLineSplitter(handler.ring != null);
+			handler.flushState = new FlushState(
+				options.flushPolicy,
+				() -> !splitter.hasMoreInChunk() && !reader.ready()
+			);
+			LineSplitter.LineConsumer onLine = line -> handler.line(splitter, line);
+
+			long partialTimeout = partialLineTimeoutNanos(handler.ring);
+			char[] chars = new char[options.bufferSize];
+			int n;
+			while ((n = reader.read(chars)) != -1) {
+				handler.readNanos = System.nanoTime();
+				handler.applyHookChanges();
+				splitter.feed(chars, 0, n, onLine);
+				if (handler.parallel != null)
+					handler.chunkEnded(!reader.ready());
+
+				if (splitter.partialLength() == 0)
+					continue;
+				handler.matchPartial(splitter);
+				if (partialTimeout >= 0
+					&& splitter.partialLength() > splitter.partialWritten()
+					&& !awaitInput(() -> !reader.ready(), partialTimeout))
+					handler.writePartial(splitter);
+			}
+			splitter.finish(onLine);
+			handler.deliverAll();
+		}
+	}
+
+	/**
+	 * @param writerStage true if lines are given to a writer stage, which can't stream long lines
+	 * @return a splitter configured with the maximum line length
+	 */
+	@NotNull
+	private LineSplitter newLineSplitter(boolean writerStage) {
+		LineSplitter splitter = new LineSplitter();
+		splitter.setMaxLength(options.maxLineLength, longLinePolicy(writerStage));
+		return splitter;
+	}
+
+	/**
+	 * @see #newLineSplitter(boolean)
+	 */
+	@NotNull
+	private ByteLineSplitter newByteLineSplitter(boolean writerStage) {
+		RecordFraming.Kind kind = options.recordFraming.kind();
+		ByteLineSplitter splitter = new ByteLineSplitter();
+		splitter.setFraming(options.recordFraming);
+		splitter.setMaxLength(
+			options.maxLineLength,
+			longLinePolicy(writerStage),
+			options.inCharset.equals(StandardCharsets.UTF_8)
+				&& (kind == RecordFraming.Kind.LINES || kind == RecordFraming.Kind.DELIMITER)
+		);
+		return splitter;
+	}
+
+	/**
+	 * @return the policy for long lines. Lines can't be streamed by a writer stage, nor if they're length-prefixed
+	 * or filtered
+	 */
+	@NotNull
+	private LongLinePolicy longLinePolicy(boolean writerStage) {
+		return (writerStage || isLengthPrefixed() || options.hasLineFilters())
+			&& options.longLinePolicy == LongLinePolicy.STREAM
+			? LongLinePolicy.SPLIT
+			: options.longLinePolicy;
+	}
+
+	private boolean isLengthPrefixed() {
+		return options.recordFraming.kind() == RecordFraming.Kind.LENGTH_PREFIXED;
+	}
+
+	/**
+	 * Writes the length header of a length-prefixed record, if records are length-prefixed
+	 *
+	 * @param length number of bytes of the record, excluding prefix and suffix
+	 */
+	private void writeLengthHeader(@NotNull LineWriter writer, int length) throws IOException {
+		if (!isLengthPrefixed())
+			return;
+		length += (prefix == null ? 0 : prefix.length) + (suffix == null ? 0 : suffix.length);
+		writer.writeLength(length, options.recordFraming.size());
+	}
+
+	/**
+	 * @return nanoseconds the input must be idle to write a partial line, or -1 if partial lines are not written
+	 * @see Builder#setPartialLineTimeout(Duration)
+	 */
+	private long partialLineTimeoutNanos(@Nullable SpscRingBuffer<Object> ring) {
+		return options.partialLineTimeout == null || ring != null || isLengthPrefixed() || options.hasLineFilters()
+			? -1
+			: options.partialLineTimeout.toNanos();
+	}
+
+	/**
+	 * Waits until the input has data available or the timeout elapses
+	 *
+	 * @return true if the input has data available
+	 */
+	private static boolean awaitInput(@NotNull FlushState.IdleProbe idle, long timeoutNanos) throws IOException {
+		long deadline = System.nanoTime() + timeoutNanos;
+		long parkNanos = 50_000;
+		while (idle.isIdle()) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				return false;
+			LockSupport.parkNanos(Math.min(parkNanos, remaining));
+			parkNanos = Math.min(parkNanos * 2, 10_000_000);
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if lines can be framed and written as bytes, without decoding them.
+	 * Records other than lines are always framed as bytes (see {@link RecordFraming})
+	 */
+	private boolean isByteFramed() {
+		return options.recordFraming.kind() != RecordFraming.Kind.LINES
+			|| options.inCharset.equals(options.outCharset) && LineWriter.isAsciiCompatible(options.inCharset);
+	}
+
+	@NotNull
+	private LineWriter newLineWriter() {
+		return new LineWriter(
+			options.outStream,
+			options.outChannel instanceof GatheringByteChannel ? (GatheringByteChannel) options.outChannel : null,
+			options.outCharset,
+			options.bufferSize,
+			prefix,
+			suffix,
+			newLine
+		);
+	}
+
+	/**
+	 * Writes every line taken from the ring buffer, until the end of the stream is reached.
+	 * This is run by the writer thread when a writer stage is configured
+	 *
+	 * @param ring   buffer from which lines are taken. Lines are either {@link String} or encoded bytes
+	 * @param writer lines are written here
+	 * @see Builder#setWriterStage(int, OverflowPolicy)
+	 */
+	private void runWriterStage(@NotNull SpscRingBuffer<Object> ring, @NotNull LineWriter writer) {
+		boolean failed = false;
+		try {
+			if (header != null) writer.write(header);
+		} catch (IOException e) {
+			failed = true;
+			reportException(e);
+		}
+
+		// for the writer, the input is the ring buffer
+		FlushState flushState = new FlushState(options.flushPolicy, ring::isEmpty);
+		Object item;
+		while ((item = ring.take()) != END_OF_STREAM && item != ABORTED) {
+			// keep draining the buffer even if writing failed, so the reader never waits forever
+			if (failed)
+				continue;
+			try {
+				// copies given to the writer stage are never modified, so they can be borrowed
+				int length;
+				if (item instanceof byte[]) {
+					byte[] bytes = (byte[]) item;
+					writeLengthHeader(writer, bytes.length);
+					length = writer.writeLine(bytes, 0, bytes.length, true);
+				} else {
+					length = writer.writeLine((String) item);
+				}
+				wrote(writer, length, flushState);
+			} catch (IOException e) {
+				failed = true;
+				reportException(e);
+			}
+		}
+
+		try {
+			if (!failed && item == END_OF_STREAM && footer != null) writer.write(footer);
+		} catch (IOException e) {
+			reportException(e);
+		}
+		closeWriter(writer);
+	}
+
+	/**
+	 * @return a thread (of the same kind as the current one, platform or virtual) to run the writer stage
+	 */
+	@NotNull
+	private Thread initWriterThread(@NotNull SpscRingBuffer<Object> ring, @NotNull LineWriter writer) {
+		return ThreadSupport.newSiblingThread(
+			() -> runWriterStage(ring, writer),
+			Thread.currentThread().getName() + "-Writer"
+		);
+	}
+
+	/**
+	 * Counts a line and the hook calls it caused in the statistics
+	 */
+	private void lineRead(int calls) {
+		hooksCalled(calls);
+		lines.lazySet(lines.get() + 1);
+	}
+
+	private void hooksCalled(int calls) {
+		if (calls > 0)
+			hookCalls.lazySet(hookCalls.get() + calls);
+	}
+
+	private void wrote(@NotNull LineWriter writer, int length, @Nullable FlushState flushState) throws IOException {
+		bytesWritten.lazySet(bytesWritten.get() + length);
+		if (flushState != null && flushState.wrote(length)) writer.flush();
+	}
+
+	/**
+	 * @return the evaluator of hooks in parallel, or null if hooks are evaluated in the thread reading lines
+	 */
+	@Nullable
+	private ParallelHooks newParallelHooks() {
+		Executor executor = options.parallelHookExecutor;
+		if (executor == null)
+			return null;
+
+		int parallelism = executor instanceof ForkJoinPool
+			? ((ForkJoinPool) executor).getParallelism()
+			: Runtime.getRuntime().availableProcessors();
+		return new ParallelHooks(executor, options.parallelHookBatchSize, parallelism * 2, options.firstMatchOnly);
+	}
+
+	/**
+	 * A hook added or removed while the pipe is running
+	 */
+	private static final class HookChange {
+		enum Kind {
+			/**
+			 * The hook is added before the current ones
+			 */
+			FIRST,
+			/**
+			 * The hook is added after the current ones
+			 */
+			LAST,
+			REMOVE
+		}
+
+		@NotNull
+		private final Hook hook;
+
+		@NotNull
+		private final Kind kind;
+
+		private HookChange(@NotNull Hook hook, @NotNull Kind kind) {
+			this.hook = hook;
+			this.kind = kind;
+		}
+	}
+
+	/**
+	 * A stream to which lines are routed (see {@link LineFilter#route(Pattern, OutputStream)})
+	 */
+	private static final class Route {
+		@NotNull
+		private final LineWriter writer;
+
+		@NotNull
+		private final FlushState flushState;
+
+		private Route(@NotNull LineWriter writer, @NotNull FlushState flushState) {
+			this.writer = writer;
+			this.flushState = flushState;
+		}
+	}
+
+	/**
+	 * Writes the lines (and pieces of long lines) given by a splitter, or gives them to the writer stage,
+	 * and runs the hooks for them. Lines are filtered (and routed) before being written, if there are line filters
+	 */
+	private final class LineHandler {
+		@NotNull
+		private final LineWriter writer;
+
+		/**
+		 * Not null if lines are given to a writer stage
+		 */
+		@Nullable
+		private final SpscRingBuffer<Object> ring;
+
+		private final boolean dropOnFullStage;
+
+		/**
+		 * null if there are no hooks, or every hook has expired
+		 */
+		@Nullable
+		private HookMatcher hookMatcher;
+
+		/**
+		 * Not null if there are hooks and lines are framed as bytes
+		 */
+		@Nullable
+		private ByteLineDecoder decoder;
+
+		private final boolean byteFramed;
+
+		/**
+		 * Must be set before lines are given
+		 */
+		private FlushState flushState;
+
+		/**
+		 * Lines within this array can be borrowed by the writer (see {@link LineWriter#releaseBorrowed()})
+		 */
+		private byte[] borrowable;
+
+		/**
+		 * {@link System#nanoTime()} of the last read, given to match hooks
+		 */
+		private long readNanos;
+
+		/**
+		 * Not null if hooks are evaluated in parallel (see {@link Builder#setParallelHooks(Executor, int)})
+		 */
+		@Nullable
+		private final ParallelHooks parallel;
+
+		/**
+		 * true if there are line filters, so lines are matched before being written
+		 */
+		private final boolean filtering;
+
+		/**
+		 * true if lines not matching any filter are written, i.e. there is no {@link LineFilter.Action#KEEP} filter
+		 */
+		private final boolean keepUnmatched;
+
+		/**
+		 * Streams lines are routed to, or null if there are no routes
+		 */
+		@Nullable
+		private final IdentityHashMap<OutputStream, Route> routes;
+
+		/**
+		 * First filter found within the last line matched, or null if none was found
+		 */
+		@Nullable
+		private LineFilter lineFilter;
+
+		private LineHandler(
+			@NotNull LineWriter writer,
+			@Nullable SpscRingBuffer<Object> ring,
+			boolean byteFramed,
+			@Nullable ParallelHooks parallel
+		) {
+			this.writer = writer;
+			this.ring = ring;
+			this.parallel = parallel;
+			this.dropOnFullStage = options.writerStageBackpressure == OverflowPolicy.DROP_NEWEST;
+			this.byteFramed = byteFramed;
+			// just "cache" values to prevent doing this null checks for every line
+			// (that may be more expensive, because it'll probably be executed a lot of times)
+			this.filtering = options.hasLineFilters();
+			this.keepUnmatched = options.lineFilters.stream()
+				.noneMatch(filter -> filter.getAction() == LineFilter.Action.KEEP);
+			this.routes = newRoutes();
+			this.hookMatcher = options.hasHooks() || filtering
+				? new HookMatcher(
+					options.allHooks(),
+					hookDispatcher,
+					byteFramed ? options.inCharset : null,
+					options.firstMatchOnly
+				)
+				: null;
+			this.decoder = hookMatcher != null && byteFramed ? new ByteLineDecoder(options.inCharset) : null;
+		}
+
+		/**
+		 * @return a writer for each distinct stream lines are routed to, or null if there are no routes
+		 */
+		@Nullable
+		private IdentityHashMap<OutputStream, Route> newRoutes() {
+			IdentityHashMap<OutputStream, Route> routes = null;
+			for (LineFilter filter : options.lineFilters) {
+				OutputStream stream = filter.getStream();
+				if (stream == null)
+					continue;
+				if (routes == null)
+					routes = new IdentityHashMap<>();
+				routes.computeIfAbsent(stream, out -> new Route(
+					new LineWriter(out, null, options.outCharset, options.bufferSize, prefix, suffix, newLine),
+					// routes are idle when the input is
+					new FlushState(options.flushPolicy, () -> flushState.isInputIdle())
+				));
+			}
+			return routes;
+		}
+
+		/**
+		 * @return true if the last line matched must be written to the output stream
+		 */
+		private boolean isKept() {
+			return lineFilter == null ? keepUnmatched : lineFilter.getAction() == LineFilter.Action.KEEP;
+		}
+
+		/**
+		 * @return the route of the last line matched, or null if it is not routed
+		 */
+		@Nullable
+		private Route route() {
+			return lineFilter == null || lineFilter.getAction() != LineFilter.Action.ROUTE
+				? null
+				: routes.get(lineFilter.getStream());
+		}
+
+		/**
+		 * Flushes the streams lines are routed to (they're never closed)
+		 */
+		private void flushRoutes() {
+			if (routes == null)
+				return;
+			for (Route route : routes.values()) {
+				try {
+					route.writer.flush();
+				} catch (IOException e) {
+					reportException(e);
+				}
+			}
+		}
+
+		private void line(@NotNull LineSplitter splitter, @NotNull CharSlice line) throws IOException {
+			int from = splitter.alreadyWritten();
+			boolean start = !splitter.isContinuation();
+			if (splitter.isPiece() && options.longLinePolicy == LongLinePolicy.STREAM) {
+				wrote(writer, writer.writeLine(line, from, start, false), null);
+				deliverAll();
+				if (hookMatcher != null)
+					hooksCalled(matched(position(-1).matchPartial(line)));
+				return;
+			}
+
+			// any other piece is the beginning of a truncated line
+			boolean truncated = splitter.isPiece();
+			// filtered lines are matched before being written
+			int calls = filtering ? match(line) : 0;
+			Route route = filtering ? route() : null;
+			if (route != null) {
+				int length = route.writer.writeLine(line, from, start, !truncated);
+				if (truncated)
+					length += route.writer.writeLine(truncationMarker, 0, truncationMarker.length, false, false, true);
+				if (route.flushState.wrote(length)) route.writer.flush();
+			} else if (!filtering || isKept()) {
+				if (ring == null) {
+					int length = writer.writeLine(line, from, start, !truncated);
+					if (truncated)
+						length += writer.writeLine(truncationMarker, 0, truncationMarker.length, false, false, true);
+					wrote(writer, length, flushState);
+				} else {
+					stage(truncated ? line + options.truncationMarker : line.toString());
+				}
+			}
+			if (!filtering && hookMatcher != null)
+				calls = match(line);
+			lineRead(calls);
+		}
+
+		private void line(
+			@NotNull ByteLineSplitter splitter,
+			byte[] bytes,
+			int offset,
+			int length
+		) throws IOException {
+			int skip = splitter.alreadyWritten();
+			boolean start = !splitter.isContinuation();
+			boolean borrowed = bytes == borrowable;
+			if (splitter.isPiece() && options.longLinePolicy == LongLinePolicy.STREAM) {
+				wrote(writer, writer.writeLine(bytes, offset + skip, length - skip, borrowed, start, false), null);
+				deliverAll();
+				if (hookMatcher != null)
+					hooksCalled(matched(position(splitter.lineOffset()).matchPartial(bytes, offset, length, decoder)));
+				return;
+			}
+
+			// any other piece is the beginning of a truncated line
+			boolean truncated = splitter.isPiece();
+			// filtered lines are matched before being written
+			int calls = filtering ? match(bytes, offset, length, splitter.lineOffset()) : 0;
+			Route route = filtering ? route() : null;
+			if (route != null) {
+				if (start)
+					writeLengthHeader(route.writer, length + (truncated ? truncationMarker.length : 0));
+				int n = route.writer.writeLine(bytes, offset + skip, length - skip, false, start, !truncated);
+				if (truncated)
+					n += route.writer.writeLine(truncationMarker, 0, truncationMarker.length, false, false, true);
+				if (route.flushState.wrote(n)) route.writer.flush();
+			} else if (!filtering || isKept()) {
+				if (ring == null) {
+					if (start)
+						writeLengthHeader(writer, length + (truncated ? truncationMarker.length : 0));
+					int n = writer.writeLine(bytes, offset + skip, length - skip, borrowed, start, !truncated);
+					if (truncated)
+						n += writer.writeLine(truncationMarker, 0, truncationMarker.length, false, false, true);
+					wrote(writer, n, flushState);
+				} else {
+					byte[] copy = Arrays.copyOfRange(
+						bytes,
+						offset,
+						offset + length + (truncated ? truncationMarker.length : 0)
+					);
+					if (truncated)
+						System.arraycopy(truncationMarker, 0, copy, length, truncationMarker.length);
+					stage(copy);
+				}
+			}
+			if (!filtering && hookMatcher != null)
+				calls = match(bytes, offset, length, splitter.lineOffset());
+			lineRead(calls);
+		}
+
+		/**
+		 * Sets the position of the current line in the hook matcher
+		 *
+		 * @param byteOffset offset of the first byte of the line, or -1 if it is not known
+		 * @return the hook matcher
+		 */
+		@NotNull
+		private HookMatcher position(long byteOffset) {
+			hookMatcher.setPosition(lines.get() + 1, byteOffset, readNanos);
+			return hookMatcher;
+		}
+
+		/**
+		 * Applies the hooks added and removed while the pipe is running (if any)
+		 *
+		 * @see #addHook(Hook)
+		 * @see #removeHook(Hook)
+		 */
+		private void applyHookChanges() {
+			if (hookChanges.isEmpty())
+				return;
+
+			List<Hook> first = new ArrayList<>();
+			List<Hook> last = new ArrayList<>();
+			Set<Hook> removed = new HashSet<>();
+			for (HookChange change; (change = hookChanges.poll()) != null; ) {
+				Hook hook = change.hook;
+				switch (change.kind) {
+					case FIRST:
+						first.add(hook);
+						break;
+					case LAST:
+						last.add(hook);
+						break;
+					case REMOVE:
+						// hooks added and removed before being applied are never matched
+						first.removeIf(added -> added == hook);
+						last.removeIf(added -> added == hook);
+						removed.add(hook);
+						break;
+				}
+			}
+
+			if (hookMatcher != null) {
+				hookMatcher = hookMatcher.withChanges(first, last, removed);
+			} else if (!first.isEmpty() || !last.isEmpty()) {
+				first.addAll(last);
+				hookMatcher = new HookMatcher(
+					first,
+					hookDispatcher,
+					byteFramed ? options.inCharset : null,
+					options.firstMatchOnly
+				);
+			}
+			if (byteFramed && decoder == null && hookMatcher != null)
+				decoder = new ByteLineDecoder(options.inCharset);
+		}
+
+		/**
+		 * Matches a complete line against the hooks, or adds it to the batch of lines evaluated in parallel.
+		 * The first filter found within the line is kept in {@link #lineFilter}
+		 *
+		 * @return number of hooks called
+		 */
+		private int match(@NotNull CharSlice line) {
+			if (parallel == null) {
+				int calls = position(-1).match(line);
+				lineFilter = hookMatcher.filterFound();
+				return matched(calls);
+			}
+
+			String copy = line.toString();
+			lineFilter = hookMatcher.filter(copy);
+			if (hookMatcher.hasHooks())
+				parallel.add(hookMatcher.hooks(), copy, lines.get() + 1, -1, readNanos);
+			return deliverBatches(false);
+		}
+
+		/**
+		 * @param byteOffset offset of the first byte of the line in the input
+		 * @see #match(CharSlice)
+		 */
+		private int match(byte[] bytes, int offset, int length, long byteOffset) {
+			if (parallel == null) {
+				int calls = position(byteOffset).match(bytes, offset, length, decoder);
+				lineFilter = hookMatcher.filterFound();
+				return matched(calls);
+			}
+
+			lineFilter = null;
+			if (position(byteOffset).mayMatch(bytes, offset, length)) {
+				String line = decoder.decode(bytes, offset, length).toString();
+				lineFilter = hookMatcher.filter(line);
+				if (hookMatcher.hasHooks())
+					parallel.add(hookMatcher.hooks(), line, lines.get() + 1, byteOffset, readNanos);
+			} else {
+				// hooks may have expired before the prefilter
+				matched(0);
+			}
+			return deliverBatches(false);
+		}
+
+		/**
+		 * Submits the lines of the chunk just read to be evaluated in parallel, so they're not delayed until
+		 * the batch is full
+		 *
+		 * @param idle true if no more input is available, so hooks are called before waiting for it
+		 */
+		private void chunkEnded(boolean idle) {
+			parallel.submit();
+			hooksCalled(deliverBatches(idle));
+		}
+
+		/**
+		 * Calls the hooks of every line evaluated in parallel (if any), waiting for the lines being evaluated,
+		 * so the next hooks can be called in line order
+		 */
+		private void deliverAll() {
+			if (parallel != null)
+				hooksCalled(deliverBatches(true));
+		}
+
+		/**
+		 * Calls the hooks of the batches evaluated in parallel, in order
+		 *
+		 * @param all if true, every batch is delivered (waiting for the ones being evaluated). Otherwise, only the
+		 *            ones already evaluated, unless too many batches are being evaluated
+		 * @return number of hooks called
+		 */
+		private int deliverBatches(boolean all) {
+			if (all)
+				parallel.submit();
+
+			int calls = 0;
+			for (ParallelHooks.Batch batch; (batch = parallel.poll(all || parallel.isFull())) != null; )
+				if (hookMatcher != null)
+					calls += matched(hookMatcher.deliver(batch));
+			return calls;
+		}
+
+		/**
+		 * Removes the hooks that expired while matching a line
+		 *
+		 * @param calls number of hooks called
+		 * @return calls
+		 */
+		private int matched(int calls) {
+			if (hookMatcher.hasExpired())
+				hookMatcher = hookMatcher.withoutExpired();
+			return calls;
+		}
+
+		/**
+		 * Gives a copy of a line to the writer stage
+		 */
+		private void stage(@NotNull Object copy) {
+			if (!dropOnFullStage)
+				ring.put(copy);
+			else if (!ring.offer(copy))
+				droppedLines.increment();
+		}
+
+		/**
+		 * Runs the hooks against the partial line of the splitter, if configured
+		 *
+		 * @see Builder#setPartialLineHooks(boolean)
+		 */
+		private void matchPartial(@NotNull LineSplitter splitter) {
+			if (!options.partialLineHooks || hookMatcher == null || splitter.partialLength() == 0)
+				return;
+			deliverAll();
+			if (hookMatcher != null)
+				hooksCalled(matched(position(-1).matchPartial(splitter.partial())));
+		}
+
+		/**
+		 * @see #matchPartial(LineSplitter)
+		 */
+		private void matchPartial(@NotNull ByteLineSplitter splitter) {
+			if (!options.partialLineHooks || hookMatcher == null || splitter.partialLength() == 0)
+				return;
+			deliverAll();
+			if (hookMatcher != null)
+				hooksCalled(matched(
+					position(splitter.lineOffset())
+						.matchPartial(splitter.partialBytes(), 0, splitter.partialLength(), decoder)
+				));
+		}
+
+		/**
+		 * Writes the part of the partial line that was not written yet, without suffix and line terminator,
+		 * and flushes it
+		 *
+		 * @see Builder#setPartialLineTimeout(Duration)
+		 */
+		private void writePartial(@NotNull LineSplitter splitter) throws IOException {
+			int from = splitter.partialWritten();
+			wrote(writer, writer.writeLine(splitter.partial(), from, !splitter.isPartialContinuation(), false), null);
+			writer.flush();
+			splitter.markPartialWritten();
+		}
+
+		/**
+		 * @see #writePartial(LineSplitter)
+		 */
+		private void writePartial(@NotNull ByteLineSplitter splitter) throws IOException {
+			int from = splitter.partialWritten();
+			int length = splitter.partialLength() - from;
+			boolean start = !splitter.isPartialContinuation();
+			wrote(writer, writer.writeLine(splitter.partialBytes(), from, length, false, start, false), null);
+			writer.flush();
+			splitter.markPartialWritten();
+		}
+	}
+
+	/**
+	 * Flushes the writer and closes it if the output stream should be closed
+	 */
+	private void closeWriter(@NotNull LineWriter writer) {
+		try {
+			if (options.closeOutStream)
+				writer.close();
+			else
+				writer.flush();
+		} catch (IOException e) {
+			reportException(e);
+		}
+	}
+
+	/**
+	 * Copies raw bytes from the input stream to the output stream using a single buffer
+	 * of {@link Builder#getBufferSize()} bytes
+	 */
+	private void runPassthrough() {
+		final byte[] buffer = new byte[options.bufferSize];
+		try (InputStream in = options.inStream) {
+			FlushState flushState = new FlushState(options.flushPolicy, () -> in.available() == 0);
+			if (header != null) options.outStream.write(header);
+
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				options.outStream.write(buffer, 0, n);
+				bytesWritten.lazySet(bytesWritten.get() + n);
+
+				if (flushState.wrote(n)) options.outStream.flush();
+			}
+
+			if (footer != null) options.outStream.write(footer);
+		} catch (IOException e) {
+			reportException(e);
+		} finally {
+			try {
+				options.outStream.flush();
+				if (options.closeOutStream)
+					options.outStream.close();
+			} catch (IOException e) {
+				reportException(e);
+			}
+		}
+	}
+
+	/**
+	 * Copies raw bytes from the input channel to the output channel.
+	 * <p>
+	 * If any of the channels is a {@link FileChannel} the zero-copy transfer methods are used, otherwise
+	 * bytes are copied through a single direct buffer of {@link Builder#getBufferSize()} bytes
+	 */
+	private void runChannels(@NotNull ReadableByteChannel inChannel, @NotNull WritableByteChannel outChannel) {
+		try (ReadableByteChannel in = inChannel) {
+			if (header != null) writeFully(outChannel, header);
+
+			long count;
+			if (in instanceof FileChannel) {
+				FileChannel src = (FileChannel) in;
+				long position = src.position();
+				while ((count = src.transferTo(position, Long.MAX_VALUE - position, outChannel)) > 0) {
+					position += count;
+					bytesWritten.lazySet(bytesWritten.get() + count);
+				}
+				src.position(position);
+			} else if (outChannel instanceof FileChannel) {
+				FileChannel dst = (FileChannel) outChannel;
+				long position = dst.position();
+				while ((count = dst.transferFrom(in, position, options.bufferSize)) > 0) {
+					position += count;
+					bytesWritten.lazySet(bytesWritten.get() + count);
+				}
+				dst.position(position);
+			} else {
+				ByteBuffer buffer = ByteBuffer.allocateDirect(options.bufferSize);
+				while (in.read(buffer) != -1) {
+					buffer.flip();
+					bytesWritten.lazySet(bytesWritten.get() + buffer.remaining());
+					while (buffer.hasRemaining())
+						outChannel.write(buffer);
+					buffer.clear();
+				}
+			}
+
+			if (footer != null) writeFully(outChannel, footer);
+		} catch (IOException e) {
+			reportException(e);
+		} finally {
+			try {
+				if (options.closeOutStream)
+					outChannel.close();
+			} catch (IOException e) {
+				reportException(e);
+			}
+		}
+	}
+
+	private static void writeFully(@NotNull WritableByteChannel channel, byte[] bytes) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * Runs the pipe incrementally: every call to {@link #step(byte[], CharBuffer)} (or
+	 * {@link #read(ReadableByteChannel, byte[], CharBuffer)}) only processes the data that can be read from the
+	 * input without blocking.
+	 * This is used by {@link PipeGroup} and {@link SelectorPipeEngine} to drive many pipes with a few threads
+	 * <p>
+	 * The writer stage is not used in this mode
+	 */
+	final class Stepper {
+		/**
+		 * Tells if the producer of the input stream has finished, so reading from it won't block
+		 */
+		@NotNull
+		private final BooleanSupplier inputEnded;
+
+		@NotNull
+		private final LineSplitter.LineConsumer onLine = this::onLine;
+
+		@NotNull
+		private final ByteLineSplitter.LineConsumer onByteLine = this::onLine;
+
+		private boolean passthrough;
+
+		@Nullable
+		private LineWriter writer;
+
+		/**
+		 * Not null if lines are decoded before framing them
+		 */
+		@Nullable
+		private CharsetDecoder decoder;
+
+		@Nullable
+		private LineSplitter splitter;
+
+		/**
+		 * Not null if lines are framed as bytes (see {@link #isByteFramed()})
+		 */
+		@Nullable
+		private ByteLineSplitter byteSplitter;
+
+		@Nullable
+		private LineHandler handler;
+
+		@Nullable
+		private FlushState flushState;
+
+		/**
+		 * Bytes of an incomplete character at the end of the last chunk read
+		 */
+		private byte[] leftover = new byte[8];
+		private int leftoverLength;
+
+		/**
+		 * Time of the last read that returned data. Used to write partial lines once the input is idle
+		 */
+		private long lastReadNanos;
+
+		private boolean done;
+
+		Stepper(@NotNull BooleanSupplier inputEnded) {
+			this.inputEnded = inputEnded;
+		}
+
+		/**
+		 * @return true if the pipe has finished
+		 */
+		boolean isDone() {
+			return done;
+		}
+
+		/**
+		 * Writes the header and prepares everything needed to process the input
+		 */
+		void start() {
+			startNanos = System.nanoTime();
+			passthrough = options.isPassthrough();
+			flushState = new FlushState(
+				options.flushPolicy,
+				() -> !hasMoreInChunk() && options.inStream.available() == 0
+			);
+			try {
+				if (passthrough) {
+					if (header != null) options.outStream.write(header);
+					return;
+				}
+
+				writer = newLineWriter();
+				boolean byteFramed = isByteFramed();
+				handler = new LineHandler(writer, null, byteFramed, null);
+				handler.flushState = flushState;
+				if (byteFramed) {
+					byteSplitter = newByteLineSplitter(false);
+				} else {
+					decoder = options.inCharset.newDecoder()
+						.onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+					splitter = newLineSplitter(false);
+				}
+				if (header != null) writer.write(header);
+			} catch (IOException e) {
+				reportException(e);
+				finish(false, CharBuffer.allocate(0));
+			}
+		}
+
+		/**
+		 * Reads the bytes available in the input stream (if any) and processes them
+		 *
+		 * @param buffer buffer to read bytes into. Its content is not needed after this method returns
+		 * @param chars  buffer to decode chars into. Its content is not needed after this method returns
+		 * @return number of bytes read, or -1 if the pipe has finished
+		 */
+		int step(byte[] buffer, @NotNull CharBuffer chars) {
+			if (done)
+				return -1;
+
+			try {
+				int available = options.inStream.available();
+				if (available <= 0 && !inputEnded.getAsBoolean()) {
+					writePartialLineIfIdle();
+					return 0;
+				}
+
+				System.arraycopy(leftover, 0, buffer, 0, leftoverLength);
+				int room = buffer.length - leftoverLength;
+				int n = options.inStream.read(buffer, leftoverLength, available > 0 ? Math.min(available, room) : room);
+				return process(buffer, n, chars);
+			} catch (IOException e) {
+				reportException(e);
+				finish(false, chars);
+				return -1;
+			}
+		}
+
+		/**
+		 * Reads the bytes available in the given non-blocking channel (if any) and processes them
+		 *
+		 * @param channel channel to read from
+		 * @param buffer  buffer to read bytes into. Its content is not needed after this method returns
+		 * @param chars   buffer to decode chars into. Its content is not needed after this method returns
+		 * @return number of bytes read, or -1 if the pipe has finished
+		 */
+		int read(@NotNull ReadableByteChannel channel, byte[] buffer, @NotNull CharBuffer chars) {
+			if (done)
+				return -1;
+
+			try {
+				System.arraycopy(leftover, 0, buffer, 0, leftoverLength);
+				int n = channel.read(ByteBuffer.wrap(buffer, leftoverLength, buffer.length - leftoverLength));
+				return process(buffer, n, chars);
+			} catch (IOException e) {
+				reportException(e);
+				finish(false, chars);
+				return -1;
+			}
+		}
+
+		/**
+		 * @param buffer buffer with the leftover bytes of the previous chunk followed by the bytes just read
+		 * @param n      number of bytes just read, or -1 if the end of the input was reached
+		 * @return n
+		 */
+		private int process(byte[] buffer, int n, @NotNull CharBuffer chars) throws IOException {
+			if (n == -1) {
+				finish(true, chars);
+				return -1;
+			}
+
+			if (n > 0) {
+				lastReadNanos = System.nanoTime();
+				if (passthrough) {
+					options.outStream.write(buffer, 0, n);
+					bytesWritten.lazySet(bytesWritten.get() + n);
+					if (flushState.wrote(n)) options.outStream.flush();
+				} else if (byteSplitter != null) {
+					handler.readNanos = lastReadNanos;
+					handler.applyHookChanges();
+					handler.borrowable = buffer;
+					try {
+						byteSplitter.feed(buffer, 0, n, onByteLine);
+						writer.releaseBorrowed();
+					} finally {
+						handler.borrowable = null;
+					}
+					handler.matchPartial(byteSplitter);
+				} else {
+					handler.readNanos = lastReadNanos;
+					handler.applyHookChanges();
+					decode(ByteBuffer.wrap(buffer, 0, leftoverLength + n), chars, false);
+					handler.matchPartial(splitter);
+				}
+			}
+			return n;
+		}
+
+		/**
+		 * Processes any pending data (if the end of the input was reached), writes the footer and closes
+		 * the streams. Does nothing if the pipe has already finished
+		 *
+		 * @param reachedEnd true if the end of the input was reached. If false, pending data is discarded and
+		 *                   the footer is not written
+		 * @param chars      buffer to decode the pending chars into
+		 */
+		void finish(boolean reachedEnd, @NotNull CharBuffer chars) {
+			if (done)
+				return;
+			done = true;
+
+			try {
+				if (reachedEnd && byteSplitter != null) {
+					byteSplitter.finish(onByteLine);
+				} else if (reachedEnd && splitter != null) {
+					decode(ByteBuffer.wrap(leftover, 0, leftoverLength), chars, true);
+					splitter.finish(onLine);
+				}
+
+				if (reachedEnd && footer != null) {
+					if (passthrough)
+						options.outStream.write(footer);
+					else
+						writer.write(footer);
+				}
+			} catch (IOException e) {
+				reportException(e);
+			} finally {
+				try {
+					options.inStream.close();
+				} catch (IOException e) {
+					reportException(e);
+				}
+
+				if (handler != null)
+					handler.flushRoutes();
+				if (writer != null) {
+					closeWriter(writer);
+				} else {
+					try {
+						options.outStream.flush();
+						if (options.closeOutStream)
+							options.outStream.close();
+					} catch (IOException e) {
+						reportException(e);
+					}
+				}
+				endNanos = System.nanoTime();
+				endAwaiting();
+			}
+		}
+
+		/**
+		 * Writes the partial line (if any) if the input has been idle for the configured time
+		 *
+		 * @see Builder#setPartialLineTimeout(Duration)
+		 */
+		private void writePartialLineIfIdle() throws IOException {
+			long timeout = partialLineTimeoutNanos(null);
+			if (timeout < 0 || System.nanoTime() - lastReadNanos < timeout)
+				return;
+
+			if (byteSplitter != null && byteSplitter.partialLength() > byteSplitter.partialWritten())
+				handler.writePartial(byteSplitter);
+			else if (splitter != null && splitter.partialLength() > splitter.partialWritten())
+				handler.writePartial(splitter);
+		}
+
+		private boolean hasMoreInChunk() {
+			return splitter != null ? splitter.hasMoreInChunk() : byteSplitter != null && byteSplitter.hasMoreInChunk();
+		}
+
+		private void decode(
+			@NotNull ByteBuffer bytes,
+			@NotNull CharBuffer chars,
+			boolean endOfInput
+		) throws IOException {
+			CoderResult result;
+			do {
+				chars.clear();
+				result = decoder.decode(bytes, chars, endOfInput);
+				chars.flip();
+				splitter.feed(chars.array(), chars.arrayOffset(), chars.limit(), onLine);
+			} while (result.isOverflow());
+
+			if (endOfInput) {
+				do {
+					chars.clear();
+					result = decoder.flush(chars);
+					chars.flip();
+					splitter.feed(chars.array(), chars.arrayOffset(), chars.limit(), onLine);
+				} while (result.isOverflow());
+			}
+
+			// keep the bytes of the incomplete character for the next chunk
+			leftoverLength = bytes.remaining();
+			if (leftoverLength > leftover.length)
+				leftover = new byte[leftoverLength];
+			bytes.get(leftover, 0, leftoverLength);
+		}
+
+		private void onLine(@NotNull CharSlice line) throws IOException {
+			handler.line(splitter, line);
+		}
+
+		private void onLine(byte[] bytes, int offset, int length) throws IOException {
+			handler.line(byteSplitter, bytes, offset, length);
+		}
+	}
+
+	/**
+	 * @return a snapshot of the statistics of this pipe. It can be called while the pipe is running
+	 */
+	@NotNull
+	public PipeStats getStats() {
+		long start = startNanos;
+		long end = start == 0 ? 0 : endNanos;
+		return new PipeStats(
+			lines.get(),
+			bytesWritten.get(),
+			hookCalls.get(),
+			getDroppedLines(),
+			getDroppedHookEvents(),
+			start == 0 ? 0 : (end == 0 ? System.nanoTime() : end) - start
 		);
-		try (BufferedReader reader = new BufferedReader(
-			new InputStreamReader(options.inStream, options.inCharset)
-		)) {
-			// write header
-			if (options.header != null) writer.write(options.header);
-
-			// just "cache" values to prevent doing this null checks in the while loop
-			// (that may be more expensive, because it'll probably be executed a lot of times)
-			boolean hasConfiguredHooks = options.hooks != null && !options.hooks.isEmpty();
-			boolean hasPrefix = options.prefix != null;
-			boolean hasSuffix = options.suffix != null;
+	}
 
-			// read from input stream and write to output stream
-			String line;
-			while ((line = reader.readLine()) != null) {
-				if (hasPrefix) writer.write(options.prefix);
-				writer.write(line);
-				if (hasSuffix) writer.write(options.suffix);
-				writer.newLine();
-
-				if (options.autoFlush) writer.flush();
-
-				// check if the line contains one of the specified patterns
-				if (hasConfiguredHooks) {
-					String finalLine = line;
-					options.hooks.forEach((pattern, consumer) -> {
-						if (pattern.matcher(finalLine).find())
-							consumer.accept(finalLine);
-					});
-				}
-			}
+	/**
+	 * @return number of hook executions that were discarded because the hook queue was full.
+	 * Always 0 if hooks are not executed asynchronously
+	 * @see Builder#setHookExecutor(Executor, int, OverflowPolicy)
+	 */
+	public long getDroppedHookEvents() {
+		return hookDispatcher == null ? 0 : hookDispatcher.getDropped();
+	}
 
-			// write footer
-			if (options.footer != null) writer.write(options.footer);
-		} catch (IOException e) {
-			if (options.onException != null)
-				options.onException.accept(e);
-		} finally {
-			try {
-				writer.flush();
-				if (options.closeOutStream)
-					writer.close();
-			} catch (IOException e) {
-				if (options.onException != null)
-					options.onException.accept(e);
-			}
-		}
+	/**
+	 * @return number of lines that were not written because the writer stage was full.
+	 * Always 0 if there is no writer stage or its backpressure policy is {@link OverflowPolicy#BLOCK}
+	 * @see Builder#setWriterStage(int, OverflowPolicy)
+	 */
+	public long getDroppedLines() {
+		return droppedLines.sum();
 	}
 
 	/**
@@ -138,19 +1751,27 @@ public class Pipe implements Runnable {
 	 * @return the created thread
 	 */
 	public Thread initThread(String threadName) {
-		Thread t = new Thread(this);
-		t.setDaemon(true);
-		t.setName(threadName);
-		return t;
+		return ThreadSupport.newPlatformThread(this, threadName);
 	}
 
 	public static class Builder {
+		/**
+		 * Default size (in bytes) of the buffer used to copy data when no line transformation is needed
+		 */
+		public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
 		@NotNull
 		private final InputStream inStream;
 
 		@NotNull
 		private final OutputStream outStream;
 
+		@Nullable
+		private final ReadableByteChannel inChannel;
+
+		@Nullable
+		private final WritableByteChannel outChannel;
+
 		@NotNull
 		private final Charset inCharset;
 
@@ -175,8 +1796,57 @@ public class Pipe implements Runnable {
 		@Nullable
 		private Map<Pattern, Consumer<String>> hooks;
 
+		@Nullable
+		private Map<Pattern, MatchHook> matchHooks;
+
+		@NotNull
+		private final List<Hook> addedHooks = new ArrayList<>();
+
+		private boolean firstMatchOnly;
+
+		private boolean runtimeHooks;
+
+		@NotNull
+		private final List<LineFilter> lineFilters = new ArrayList<>();
+
+		@Nullable
+		private Executor hookExecutor;
+
+		private int hookQueueCapacity;
+
+		@Nullable
+		private Executor parallelHookExecutor;
+
+		private int parallelHookBatchSize;
+
+		@NotNull
+		private OverflowPolicy hookOverflowPolicy = OverflowPolicy.BLOCK;
+
+		private int writerStageCapacity;
+
+		@NotNull
+		private OverflowPolicy writerStageBackpressure = OverflowPolicy.BLOCK;
+
+		@NotNull
+		private RecordFraming recordFraming = RecordFraming.LINES;
+
+		private boolean partialLineHooks;
+
+		@Nullable
+		private Duration partialLineTimeout;
+
+		private int maxLineLength = Integer.MAX_VALUE;
+
+		@NotNull
+		private LongLinePolicy longLinePolicy = LongLinePolicy.SPLIT;
+
+		@NotNull
+		private String truncationMarker = "...";
+
 		private boolean closeOutStream = true;
-		private boolean autoFlush = true;
+		@NotNull
+		private FlushPolicy flushPolicy = FlushPolicy.ALWAYS;
+		private int bufferSize = DEFAULT_BUFFER_SIZE;
 
 		/**
 		 * Creates a builder object with {@link StandardCharsets#UTF_8} input and output charset
@@ -199,13 +1869,105 @@ public class Pipe implements Runnable {
 			@NotNull OutputStream outStream,
 			@NotNull Charset inCharset,
 			@NotNull Charset outCharset
+		) {
+			this(inStream, outStream, null, null, inCharset, outCharset);
+		}
+
+		/**
+		 * Creates a builder object with {@link StandardCharsets#UTF_8} input and output charset
+		 * <p>
+		 * If no line transformation is needed and any of the channels is a {@link FileChannel}, data will be
+		 * transferred without copying it into the java heap.
+		 * Otherwise, the channels are wrapped into streams and data is piped as usual
+		 * <p>
+		 * If the output channel is a {@link GatheringByteChannel} (e.g. a file or a socket) and lines don't need to
+		 * be decoded, the prefix, line and suffix of many lines are written with a single gathering write, without
+		 * copying the lines into an intermediate buffer
+		 * <p>
+		 * Channels are expected to be in blocking mode, unless the pipe is run by a {@link SelectorPipeEngine}
+		 *
+		 * @param inChannel  Data will be read from this channel
+		 * @param outChannel Read data will be written in this channel
+		 */
+		public Builder(@NotNull ReadableByteChannel inChannel, @NotNull WritableByteChannel outChannel) {
+			this(inChannel, outChannel, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * @param inChannel  Data will be read from this channel
+		 * @param outChannel Read data will be written in this channel
+		 * @param inCharset  Data will be read from input channel using this encoding
+		 * @param outCharset Data will be written to output channel using this encoding
+		 * @see #Builder(ReadableByteChannel, WritableByteChannel)
+		 */
+		public Builder(
+			@NotNull ReadableByteChannel inChannel,
+			@NotNull WritableByteChannel outChannel,
+			@NotNull Charset inCharset,
+			@NotNull Charset outCharset
+		) {
+			this(
+				Channels.newInputStream(inChannel),
+				Channels.newOutputStream(outChannel),
+				inChannel,
+				outChannel,
+				inCharset,
+				outCharset
+			);
+		}
+
+		private Builder(
+			@NotNull InputStream inStream,
+			@NotNull OutputStream outStream,
+			@Nullable ReadableByteChannel inChannel,
+			@Nullable WritableByteChannel outChannel,
+			@NotNull Charset inCharset,
+			@NotNull Charset outCharset
 		) {
 			this.inStream = inStream;
 			this.outStream = outStream;
+			this.inChannel = inChannel;
+			this.outChannel = outChannel;
 			this.inCharset = inCharset;
 			this.outCharset = outCharset;
 		}
 
+		/**
+		 * Creates a builder object that reads from the given file
+		 *
+		 * @param inPath     path of the file to read from. It is opened here and closed when the pipe ends
+		 * @param outChannel Read data will be written in this channel
+		 * @throws IOException if the file can't be opened
+		 * @see #Builder(ReadableByteChannel, WritableByteChannel)
+		 */
+		public static Builder fromFile(@NotNull Path inPath, @NotNull WritableByteChannel outChannel)
+			throws IOException {
+			return new Builder(FileChannel.open(inPath, StandardOpenOption.READ), outChannel);
+		}
+
+		/**
+		 * Creates a builder object that writes to the given file.
+		 * The file is created if it doesn't exist, or truncated if it does
+		 *
+		 * @param inChannel Data will be read from this channel
+		 * @param outPath   path of the file to write to. It is opened here and closed when the pipe ends
+		 *                  (if {@link #shouldCloseOutStream()})
+		 * @throws IOException if the file can't be opened
+		 * @see #Builder(ReadableByteChannel, WritableByteChannel)
+		 */
+		public static Builder toFile(@NotNull ReadableByteChannel inChannel, @NotNull Path outPath)
+			throws IOException {
+			return new Builder(
+				inChannel,
+				FileChannel.open(
+					outPath,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING
+				)
+			);
+		}
+
 		/**
 		 * @param should_close Indicates whether the output stream should be closed when the input
 		 *                     stream is also closed. Default: true
@@ -216,12 +1978,27 @@ public class Pipe implements Runnable {
 		}
 
 		/**
-		 * @param auto_flush If true, the inner {@link BufferedWriter} will be flushed on every new line.
-		 *                   If false, it'll be flushed as needed (normally when buffer is full).
-		 *                   Default: true
+		 * @param auto_flush If true, the output is flushed after every line ({@link FlushPolicy#ALWAYS}).
+		 *                   If false, it is only flushed when the output buffer is full or the input has no
+		 *                   more data ({@link FlushPolicy#NEVER}). Default: true
+		 * @see #setFlushPolicy(FlushPolicy)
 		 */
 		public Builder setAutoFlush(boolean auto_flush) {
-			this.autoFlush = auto_flush;
+			this.flushPolicy = auto_flush ? FlushPolicy.ALWAYS : FlushPolicy.NEVER;
+			return this;
+		}
+
+		@NotNull
+		public FlushPolicy getFlushPolicy() {
+			return flushPolicy;
+		}
+
+		/**
+		 * @param flushPolicy decides when written data is flushed to the output stream.
+		 *                    Default: {@link FlushPolicy#ALWAYS}
+		 */
+		public Builder setFlushPolicy(@NotNull FlushPolicy flushPolicy) {
+			this.flushPolicy = flushPolicy;
 			return this;
 		}
 
@@ -235,6 +2012,16 @@ public class Pipe implements Runnable {
 			return outStream;
 		}
 
+		@Nullable
+		public ReadableByteChannel getInChannel() {
+			return inChannel;
+		}
+
+		@Nullable
+		public WritableByteChannel getOutChannel() {
+			return outChannel;
+		}
+
 		@NotNull
 		public Charset getInCharset() {
 			return inCharset;
@@ -326,22 +2113,415 @@ public class Pipe implements Runnable {
 		 *              from the input stream, the consumer (value) is called ({@link Consumer#accept(Object)})
 		 *              with the argument being the full line of text that triggered its execution.
 		 *              <p>
-		 *              To prevent performance issues, it is recommended patterns to be very simple.
-		 *              It is also recommended not to add too many patterns
-		 *              (for every input line it will be checked if it contains the given pattern, and it has
-		 *              complexity O(nm) or worse)
+		 *              Consumers are called in the iteration order of the map.
+		 *              <p>
+		 *              Patterns that are plain literals (e.g. "Service is running") or require one
+		 *              (e.g. "Service is (up|running)" or ".*ERROR \\d+") are searched all at once, with a single
+		 *              scan of each line, so adding many of them is cheap. Any other pattern is evaluated against
+		 *              every line, therefore it is recommended such patterns to be very simple and not too many
 		 */
 		public Builder setHooks(@Nullable Map<Pattern, Consumer<String>> hooks) {
 			this.hooks = hooks;
 			return this;
 		}
 
+		@Nullable
+		public Map<Pattern, MatchHook> getMatchHooks() {
+			return matchHooks;
+		}
+
+		/**
+		 * @param matchHooks map of patterns and match hooks. They're like hooks (see {@link #setHooks(Map)}),
+		 *                   but they're called with the result of the match (so groups can be read without
+		 *                   evaluating the pattern again), the line number, the byte offset of the line and the
+		 *                   time it was read ({@link MatchHook#onMatch(String, MatchResult, long, long, long)}).
+		 *                   <p>
+		 *                   Match hooks are called after the consumers given in {@link #setHooks(Map)}, in the
+		 *                   iteration order of the map
+		 */
+		public Builder setMatchHooks(@Nullable Map<Pattern, MatchHook> matchHooks) {
+			this.matchHooks = matchHooks;
+			return this;
+		}
+
+		/**
+		 * @return hooks added with {@link #addHook(Hook)}
+		 */
+		@NotNull
+		public List<Hook> getAddedHooks() {
+			return Collections.unmodifiableList(addedHooks);
+		}
+
+		/**
+		 * Adds a hook, which may be limited to a number of calls or a period of time (e.g. a hook waiting
+		 * for a service to start only needs to be called once, see {@link Hook#once()})
+		 * <p>
+		 * Added hooks are called after the ones given in {@link #setHooks(Map)} and {@link #setMatchHooks(Map)},
+		 * in the order they were added, unless they have a higher priority (see {@link Hook#withPriority(int)})
+		 */
+		public Builder addHook(@NotNull Hook hook) {
+			addedHooks.add(hook);
+			return this;
+		}
+
+		public boolean shouldAllowRuntimeHooks() {
+			return runtimeHooks;
+		}
+
+		/**
+		 * Splits the input into lines even if no hook is given in the builder, so hooks can be added while the pipe
+		 * is running (see {@link Pipe#addHook(Hook)}) and patterns can be awaited (see
+		 * {@link Pipe#awaitPatternAsync(Pattern, Duration)}). Otherwise, a pipe without line transformations copies
+		 * its input verbatim (see {@link #isPassthrough()}) and lines can't be matched
+		 * <p>
+		 * Lines are not decoded (nor matched) while there are no hooks, so this costs little more than copying
+		 * the input verbatim
+		 *
+		 * @param allow if true, hooks can be added to the running pipe. Default is false
+		 */
+		public Builder setRuntimeHooks(boolean allow) {
+			this.runtimeHooks = allow;
+			return this;
+		}
+
+		/**
+		 * @return true if there are hooks of any kind
+		 */
+		boolean hasHooks() {
+			return (hooks != null && !hooks.isEmpty())
+				|| (matchHooks != null && !matchHooks.isEmpty())
+				|| !addedHooks.isEmpty();
+		}
+
+		/**
+		 * @return every hook, in the order they're called, after the hooks standing for the line filters
+		 * (see {@link Hook#filter(LineFilter)})
+		 */
+		@NotNull
+		List<Hook> allHooks() {
+			List<Hook> all = new ArrayList<>();
+			for (LineFilter filter : lineFilters)
+				all.add(Hook.filter(filter));
+			if (hooks != null)
+				hooks.forEach((pattern, consumer) -> all.add(Hook.of(pattern, consumer)));
+			if (matchHooks != null)
+				matchHooks.forEach((pattern, hook) -> all.add(Hook.of(pattern, hook)));
+			all.addAll(addedHooks);
+			return all;
+		}
+
+		/**
+		 * @return filters added with {@link #addLineFilter(LineFilter)}
+		 */
+		@NotNull
+		public List<LineFilter> getLineFilters() {
+			return Collections.unmodifiableList(lineFilters);
+		}
+
+		/**
+		 * Adds a filter to write, drop or route the lines in which its pattern is found (see {@link LineFilter}),
+		 * e.g. {@code LineFilter.drop(Pattern.compile("DEBUG"))} works like grep -v
+		 * <p>
+		 * The first filter found within a line decides what to do with it. Filter patterns are searched in the
+		 * same scan of the line as the hook patterns, and hooks are still called for every line.
+		 * As lines must be complete to be filtered, {@link LongLinePolicy#STREAM} behaves as
+		 * {@link LongLinePolicy#SPLIT} and partial lines are not written (see {@link #setPartialLineTimeout(Duration)})
+		 * <p>
+		 * Lines routed to other streams are written by the thread reading lines, even if there is a writer stage
+		 * (see {@link #setWriterStage(int, OverflowPolicy)}), and they're not counted in
+		 * {@link PipeStats#getBytesWritten()}
+		 */
+		public Builder addLineFilter(@NotNull LineFilter filter) {
+			lineFilters.add(filter);
+			return this;
+		}
+
+		boolean hasLineFilters() {
+			return !lineFilters.isEmpty();
+		}
+
+		public boolean isFirstMatchOnly() {
+			return firstMatchOnly;
+		}
+
+		/**
+		 * Calls at most one hook per line: the first one whose pattern is found, in order of priority (see
+		 * {@link Hook#withPriority(int)}) and then in the order hooks were given. The patterns after it are not
+		 * evaluated, which saves most of the matching time when hooks are mutually exclusive (e.g. hooks classifying
+		 * lines by log level)
+		 * <p>
+		 * Hooks that expired are skipped, so the next hook whose pattern is found is called instead. If a hook is
+		 * called for a partial line (see {@link #setPartialLineHooks(boolean)}), no other hook is called for it once
+		 * it is complete
+		 * <p>
+		 * Patterns awaited with {@link Pipe#awaitPatternAsync(Pattern, Duration)} don't count as the first match,
+		 * so they're found even if a hook is called for the same line, and vice versa
+		 *
+		 * @param firstMatchOnly if true, at most one hook is called per line. If false, every hook whose pattern is
+		 *                       found is called (default)
+		 */
+		public Builder setFirstMatchOnly(boolean firstMatchOnly) {
+			this.firstMatchOnly = firstMatchOnly;
+			return this;
+		}
+
+		@Nullable
+		public Executor getHookExecutor() {
+			return hookExecutor;
+		}
+
+		public int getHookQueueCapacity() {
+			return hookQueueCapacity;
+		}
+
+		@NotNull
+		public OverflowPolicy getHookOverflowPolicy() {
+			return hookOverflowPolicy;
+		}
+
+		/**
+		 * Makes hook consumers run on the given executor instead of the thread reading and writing the streams,
+		 * so a slow consumer doesn't stall the pipe.
+		 * <p>
+		 * Consumers are called one at a time, in the order their patterns were found.
+		 * Notice the executor should not be the same one running the pipe if it has a single thread and
+		 * the overflow policy is {@link OverflowPolicy#BLOCK}, because the pipe would wait forever
+		 * <p>
+		 * Exceptions thrown by consumers are passed to the onException callback, and the first one is kept as the
+		 * failure of the pipe (see {@link PipeHandle#completion()})
+		 *
+		 * @param executor       executor to run hooks. If null, hooks are run in the pipe thread (default)
+		 * @param queueCapacity  maximum number of hook executions waiting to be run
+		 * @param overflowPolicy what to do when a hook must be run but the queue is full.
+		 *                       Discarded executions are counted in {@link Pipe#getDroppedHookEvents()}
+		 * @throws IllegalArgumentException if the queue capacity is not positive
+		 */
+		public Builder setHookExecutor(
+			@Nullable Executor executor,
+			int queueCapacity,
+			@NotNull OverflowPolicy overflowPolicy
+		) {
+			if (executor != null && queueCapacity <= 0)
+				throw new IllegalArgumentException("Queue capacity must be positive. Given: " + queueCapacity);
+			this.hookExecutor = executor;
+			this.hookQueueCapacity = queueCapacity;
+			this.hookOverflowPolicy = overflowPolicy;
+			return this;
+		}
+
+		@Nullable
+		public Executor getParallelHookExecutor() {
+			return parallelHookExecutor;
+		}
+
+		public int getParallelHookBatchSize() {
+			return parallelHookBatchSize;
+		}
+
+		/**
+		 * Evaluates hook patterns on the given executor (e.g. a {@link ForkJoinPool}), in batches of lines, so many
+		 * expensive patterns don't slow down the pipe. Lines are still written by the thread reading them, in order
+		 * <p>
+		 * Hooks are still called in line order (and in the same order as without this option within a line), by the
+		 * thread reading lines or through the hook executor (see {@link #setHookExecutor(Executor, int,
+		 * OverflowPolicy)}), but they may be called a bit later: after the batch of the line has been evaluated.
+		 * Lines are copied to be evaluated, so this only pays off for many or expensive patterns
+		 * <p>
+		 * Partial lines (see {@link #setPartialLineHooks(boolean)}) are still matched by the thread reading lines,
+		 * once the hooks of the previous lines have been called.
+		 * This only applies when the pipe runs in its own thread (e.g. {@link Pipe#run()}), not in a
+		 * {@link PipeGroup} or {@link SelectorPipeEngine}
+		 *
+		 * @param executor  executor to evaluate hooks, or null to evaluate them in the thread reading lines (default)
+		 * @param batchSize maximum number of lines evaluated together. Bigger batches have less overhead,
+		 *                  but hooks may be called later
+		 * @throws IllegalArgumentException if the batch size is not positive
+		 */
+		public Builder setParallelHooks(@Nullable Executor executor, int batchSize) {
+			if (executor != null && batchSize <= 0)
+				throw new IllegalArgumentException("Batch size must be positive. Given: " + batchSize);
+			this.parallelHookExecutor = executor;
+			this.parallelHookBatchSize = batchSize;
+			return this;
+		}
+
+		public int getWriterStageCapacity() {
+			return writerStageCapacity;
+		}
+
+		@NotNull
+		public OverflowPolicy getWriterStageBackpressure() {
+			return writerStageBackpressure;
+		}
+
+		/**
+		 * Splits the pipe into two stages: the thread running the pipe reads lines and runs hooks, while a second
+		 * thread writes them to the output stream. Both stages are connected with a preallocated lock-free
+		 * ring buffer, so a slow output stream doesn't slow down reading from the input stream (as long as the
+		 * buffer has room)
+		 * <p>
+		 * This only applies when lines are transformed (see {@link #isPassthrough()})
+		 *
+		 * @param capacity     maximum number of lines waiting to be written (rounded up to a power of 2).
+		 *                     If 0, lines are read and written in the same thread (default)
+		 * @param backpressure what to do when a line is read but the buffer is full. Either
+		 *                     {@link OverflowPolicy#BLOCK} (wait until there is room) or
+		 *                     {@link OverflowPolicy#DROP_NEWEST} (discard the line, see
+		 *                     {@link Pipe#getDroppedLines()}). Hooks are run for every line anyway
+		 * @throws IllegalArgumentException if the capacity is negative or the policy is not supported
+		 */
+		public Builder setWriterStage(int capacity, @NotNull OverflowPolicy backpressure) {
+			if (capacity < 0)
+				throw new IllegalArgumentException("Capacity must not be negative. Given: " + capacity);
+			if (backpressure != OverflowPolicy.BLOCK && backpressure != OverflowPolicy.DROP_NEWEST)
+				throw new IllegalArgumentException("Unsupported backpressure policy: " + backpressure);
+			this.writerStageCapacity = capacity;
+			this.writerStageBackpressure = backpressure;
+			return this;
+		}
+
+		@NotNull
+		public RecordFraming getRecordFraming() {
+			return recordFraming;
+		}
+
+		/**
+		 * @param framing how the input is split into records (lines). Default: {@link RecordFraming#LINES}.
+		 *                Any other framing is binary-safe: records are framed on bytes and written as they're read,
+		 *                see {@link RecordFraming}
+		 */
+		public Builder setRecordFraming(@NotNull RecordFraming framing) {
+			this.recordFraming = framing;
+			return this;
+		}
+
+		public boolean shouldMatchPartialLines() {
+			return partialLineHooks;
+		}
+
+		/**
+		 * @param matchPartialLines if true, hooks are also tested against the partial line left at the end of
+		 *                          every read, so hooks for prompts that aren't followed by a line terminator
+		 *                          (e.g. "Password: " or "Continue? [y/N] ") are called as soon as the prompt is
+		 *                          read. A hook is called at most once per line.
+		 *                          Notice patterns anchored at the end of the line ($) may match partial lines
+		 */
+		public Builder setPartialLineHooks(boolean matchPartialLines) {
+			this.partialLineHooks = matchPartialLines;
+			return this;
+		}
+
+		@Nullable
+		public Duration getPartialLineTimeout() {
+			return partialLineTimeout;
+		}
+
+		/**
+		 * Makes partial lines (e.g. prompts that aren't followed by a line terminator) be written to the output
+		 * once the input has been idle for the given time. The partial line is written with its prefix and flushed,
+		 * the rest of the line is written with the suffix and the line terminator once it is complete
+		 * <p>
+		 * This is not applied if a writer stage is configured, nor for pipes run by a {@link SelectorPipeEngine}
+		 *
+		 * @param timeout time the input must be idle to write a partial line, or null to only write complete lines
+		 *                (default)
+		 * @throws IllegalArgumentException if the timeout is negative
+		 */
+		public Builder setPartialLineTimeout(@Nullable Duration timeout) {
+			if (timeout != null && timeout.isNegative())
+				throw new IllegalArgumentException("Timeout must not be negative. Given: " + timeout);
+			this.partialLineTimeout = timeout;
+			return this;
+		}
+
+		public int getMaxLineLength() {
+			return maxLineLength;
+		}
+
+		@NotNull
+		public LongLinePolicy getLongLinePolicy() {
+			return longLinePolicy;
+		}
+
+		/**
+		 * Bounds the length of lines, so the memory used by the pipe is bounded no matter what the input contains
+		 * (e.g. binary data or a huge JSON document without line terminators)
+		 * <p>
+		 * The length is measured in characters, or in bytes if lines are framed as bytes (input and output charsets
+		 * are the same UTF-8, ISO-8859-1 or US-ASCII charset). UTF-8 characters and surrogate pairs are never split,
+		 * so pieces may be slightly shorter
+		 *
+		 * @param maxLength maximum length of a line. Default: {@link Integer#MAX_VALUE} (unbounded)
+		 * @param policy    what to do with longer lines, see {@link LongLinePolicy}.
+		 *                  {@link LongLinePolicy#STREAM} behaves as {@link LongLinePolicy#SPLIT} if a writer stage
+		 *                  or a line filter is configured
+		 * @throws IllegalArgumentException if the length is not positive
+		 */
+		public Builder setMaxLineLength(int maxLength, @NotNull LongLinePolicy policy) {
+			if (maxLength <= 0)
+				throw new IllegalArgumentException("Max line length must be positive. Given: " + maxLength);
+			this.maxLineLength = maxLength;
+			this.longLinePolicy = policy;
+			return this;
+		}
+
+		@NotNull
+		public String getTruncationMarker() {
+			return truncationMarker;
+		}
+
+		/**
+		 * @param truncationMarker text written after truncated lines, before the suffix.
+		 *                         See {@link LongLinePolicy#TRUNCATE}. Default: "..."
+		 */
+		public Builder setTruncationMarker(@NotNull String truncationMarker) {
+			this.truncationMarker = truncationMarker;
+			return this;
+		}
+
 		public boolean shouldCloseOutStream() {
 			return closeOutStream;
 		}
 
+		/**
+		 * @return true if the output is flushed after every line
+		 */
 		public boolean shouldAutoFlush() {
-			return autoFlush;
+			return flushPolicy == FlushPolicy.ALWAYS;
+		}
+
+		public int getBufferSize() {
+			return bufferSize;
+		}
+
+		/**
+		 * @param bufferSize size of the buffers used to read the input (in bytes, or in chars when lines are
+		 *                   decoded) and to write the output lines (in bytes). It is also the size of the buffer
+		 *                   used to copy data from the input stream to the output stream when no line
+		 *                   transformation is needed. Default: {@link #DEFAULT_BUFFER_SIZE}
+		 * @throws IllegalArgumentException if the size is not positive
+		 */
+		public Builder setBufferSize(int bufferSize) {
+			if (bufferSize <= 0)
+				throw new IllegalArgumentException("Buffer size must be positive. Given: " + bufferSize);
+			this.bufferSize = bufferSize;
+			return this;
+		}
+
+		/**
+		 * @return true if the input can be copied verbatim to the output, i.e. input and output charsets are
+		 * the same and there is no prefix, suffix, hooks (nor runtime hooks allowed, see
+		 * {@link #setRuntimeHooks(boolean)}), line filters or maximum line length configured. In that case data
+		 * doesn't need to be decoded into lines
+		 */
+		public boolean isPassthrough() {
+			return inCharset.equals(outCharset)
+				&& prefix == null
+				&& suffix == null
+				&& !hasHooks()
+				&& !runtimeHooks
+				&& lineFilters.isEmpty()
+				&& maxLineLength == Integer.MAX_VALUE;
 		}
 	}
 }
@@ -0,0 +1,347 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.CharBuffer;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs many {@link Pipe}s with a fixed number of worker threads, instead of one thread per pipe
+ * <p>
+ * Workers poll the input stream of each pipe ({@link java.io.InputStream#available()}) and only read the bytes
+ * that are already available, so a worker is never blocked by a single pipe. Pipes that had no data are polled
+ * less and less often (up to the max poll interval), while pipes with data are polled again immediately.
+ * Read and decode buffers are shared by all the pipes served by the same worker
+ * <p>
+ * Because {@link java.io.InputStream#available()} can't tell if the stream has reached its end, the group must
+ * be told when reading won't block anymore (see {@link #add(Pipe, BooleanSupplier)}).
+ * Pipes reading from a {@link java.nio.channels.SelectableChannel} are better served by a
+ * {@link SelectorPipeEngine}
+ * <p>
+ * Lines are written in the worker thread, i.e. the writer stage of the pipes is not used
+ */
+public class PipeGroup implements AutoCloseable {
+	/**
+	 * Default maximum time between two polls of an idle pipe
+	 */
+	public static final Duration DEFAULT_MAX_POLL_INTERVAL = Duration.ofMillis(10);
+
+	private static final long MIN_POLL_NANOS = 50_000;
+
+	private final long maxPollNanos;
+
+	private final int bufferSize;
+
+	@NotNull
+	private final Thread[] workers;
+
+	/**
+	 * Pipes waiting to be polled, ordered by the time they should be polled
+	 */
+	@NotNull
+	private final DelayQueue<Entry> queue = new DelayQueue<>();
+
+	@NotNull
+	private final Set<Entry> active = ConcurrentHashMap.newKeySet();
+
+	@NotNull
+	private final CountDownLatch terminated;
+
+	/**
+	 * Sum of the statistics of the pipes that have finished
+	 */
+	@NotNull
+	private PipeStats finishedStats = PipeStats.EMPTY;
+
+	private final long createdNanos = System.nanoTime();
+
+	private volatile boolean shutdown;
+	private volatile boolean closed;
+
+	/**
+	 * @param workers number of worker threads
+	 */
+	public PipeGroup(int workers) {
+		this(workers, DEFAULT_MAX_POLL_INTERVAL, Pipe.Builder.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param workers         number of worker threads
+	 * @param maxPollInterval maximum time between two polls of an idle pipe. The lower the value, the lower the
+	 *                        latency, but the higher the CPU usage
+	 * @param bufferSize      size (in bytes) of the read buffer of each worker
+	 * @throws IllegalArgumentException if the number of workers or the buffer size are not positive
+	 */
+	public PipeGroup(int workers, @NotNull Duration maxPollInterval, int bufferSize) {
+		if (workers <= 0)
+			throw new IllegalArgumentException("Number of workers must be positive. Given: " + workers);
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("Buffer size must be positive. Given: " + bufferSize);
+
+		this.maxPollNanos = Math.max(MIN_POLL_NANOS, maxPollInterval.toNanos());
+		this.bufferSize = bufferSize;
+		this.terminated = new CountDownLatch(workers);
+		this.workers = new Thread[workers];
+		for (int i = 0; i < workers; ++i) {
+			this.workers[i] = ThreadSupport.newPlatformThread(this::work, "PipeGroup-Worker-" + i);
+			this.workers[i].start();
+		}
+	}
+
+	/**
+	 * Adds a pipe whose input stream never blocks when read, e.g. an in-memory or file stream.
+	 * The pipe must not be run by other means
+	 *
+	 * @return a handle to follow the execution of the pipe
+	 * @see #add(Pipe, BooleanSupplier)
+	 */
+	@NotNull
+	public PipeHandle add(@NotNull Pipe pipe) {
+		return add(pipe, () -> true);
+	}
+
+	/**
+	 * Adds a pipe whose input stream is the output (stdout or stderr) of the given process.
+	 * The pipe must not be run by other means
+	 *
+	 * @return a handle to follow the execution of the pipe
+	 * @see #add(Pipe, BooleanSupplier)
+	 */
+	@NotNull
+	public PipeHandle add(@NotNull Pipe pipe, @NotNull Process process) {
+		return add(pipe, () -> !process.isAlive());
+	}
+
+	/**
+	 * Adds a pipe to the group. The pipe must not be run by other means
+	 * <p>
+	 * Data is read from the input stream only when it has bytes available, or once inputEnded returns true.
+	 * Therefore, inputEnded must return true only when reading from the input stream won't block anymore
+	 * (e.g. when the process producing the data has exited), otherwise a worker could be blocked
+	 *
+	 * @param pipe       the pipe
+	 * @param inputEnded tells if the producer of the input stream has finished
+	 * @return a handle to follow the execution of the pipe
+	 * @throws IllegalStateException if the group has been shut down
+	 */
+	@NotNull
+	public PipeHandle add(@NotNull Pipe pipe, @NotNull BooleanSupplier inputEnded) {
+		if (shutdown)
+			throw new IllegalStateException("Pipe group has been shut down");
+
+		Entry entry = new Entry(pipe, pipe.new Stepper(inputEnded));
+		active.add(entry);
+		entry.stepper.start();
+		queue.add(entry);
+		return entry.handle;
+	}
+
+	/**
+	 * @return number of pipes that haven't finished
+	 */
+	public int size() {
+		return active.size();
+	}
+
+	/**
+	 * @return the sum of the statistics of every pipe in the group (including the finished ones).
+	 * Elapsed time is the time since the group was created
+	 */
+	@NotNull
+	public PipeStats getStats() {
+		long elapsed = System.nanoTime() - createdNanos;
+		synchronized (this) {
+			PipeStats stats = finishedStats.plus(PipeStats.EMPTY, elapsed);
+			for (Entry entry : active)
+				stats = stats.plus(entry.pipe.getStats(), elapsed);
+			return stats;
+		}
+	}
+
+	/**
+	 * Stops accepting new pipes. Workers finish once every pipe in the group has finished
+	 */
+	public void shutdown() {
+		shutdown = true;
+		if (active.isEmpty())
+			stopWorkers();
+	}
+
+	/**
+	 * Waits until every worker has finished
+	 *
+	 * @return true if workers finished, false if the timeout elapsed
+	 */
+	public boolean awaitTermination(@NotNull Duration timeout) throws InterruptedException {
+		return terminated.await(timeout.toNanos(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stops every worker. Pipes that haven't finished are aborted: their input stream is closed, the output
+	 * stream is closed (if configured to) and their handles are completed with a {@link CancellationException}
+	 */
+	@Override
+	public void close() {
+		shutdown = true;
+		closed = true;
+		for (Entry entry : active) {
+			entry.aborted = true;
+			// if the entry is not in the queue, a worker has it and will abort it
+			if (queue.remove(entry))
+				abort(entry, CharBuffer.allocate(0));
+		}
+		stopWorkers();
+	}
+
+	private void stopWorkers() {
+		for (int i = 0; i < workers.length; ++i)
+			queue.add(new Entry(null, null));
+	}
+
+	private void work() {
+		byte[] buffer = new byte[bufferSize];
+		CharBuffer chars = CharBuffer.allocate(bufferSize);
+		try {
+			while (true) {
+				Entry entry;
+				try {
+					entry = queue.take();
+				} catch (InterruptedException e) {
+					if (closed)
+						return;
+					continue;
+				}
+
+				if (entry.stepper == null) // poison pill
+					return;
+				if (entry.aborted) {
+					abort(entry, chars);
+					continue;
+				}
+
+				int n;
+				try {
+					n = entry.stepper.step(buffer, chars);
+				} catch (RuntimeException e) {
+					entry.stepper.finish(false, chars);
+					entry.handle.completion.completeExceptionally(e);
+					finished(entry);
+					continue;
+				}
+
+				if (n < 0) {
+					entry.pipe.complete(entry.handle);
+					finished(entry);
+				} else if (entry.aborted) {
+					abort(entry, chars);
+				} else {
+					entry.reschedule(n > 0);
+					queue.add(entry);
+				}
+			}
+		} finally {
+			terminated.countDown();
+		}
+	}
+
+	private void abort(@NotNull Entry entry, @NotNull CharBuffer chars) {
+		entry.stepper.finish(false, chars);
+		entry.handle.completion.completeExceptionally(new CancellationException("Pipe group was closed"));
+		finished(entry);
+	}
+
+	private void finished(@NotNull Entry entry) {
+		synchronized (this) {
+			finishedStats = finishedStats.plus(entry.pipe.getStats(), 0);
+			active.remove(entry);
+		}
+		if (shutdown && !closed && active.isEmpty())
+			stopWorkers();
+	}
+
+	private final class Entry implements Delayed {
+		@Nullable
+		private final Pipe pipe;
+
+		@Nullable
+		private final Pipe.Stepper stepper;
+
+		@Nullable
+		private final PipeHandle handle;
+
+		/**
+		 * When the pipe should be polled next (see {@link System#nanoTime()})
+		 */
+		private long nextPollNanos = System.nanoTime();
+
+		/**
+		 * Time to wait before the next poll if the pipe has no data again
+		 */
+		private long backoffNanos = MIN_POLL_NANOS;
+
+		private volatile boolean aborted;
+
+		private Entry(@Nullable Pipe pipe, @Nullable Pipe.Stepper stepper) {
+			this.pipe = pipe;
+			this.stepper = stepper;
+			this.handle = pipe == null ? null : new PipeHandle(pipe);
+		}
+
+		/**
+		 * @param hadData true if the last poll read some data. If so, the pipe is polled again immediately
+		 */
+		private void reschedule(boolean hadData) {
+			if (hadData) {
+				backoffNanos = MIN_POLL_NANOS;
+				nextPollNanos = System.nanoTime();
+			} else {
+				nextPollNanos = System.nanoTime() + backoffNanos;
+				backoffNanos = Math.min(maxPollNanos, backoffNanos * 2);
+			}
+		}
+
+		@Override
+		public long getDelay(@NotNull TimeUnit unit) {
+			return unit.convert(nextPollNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(@NotNull Delayed other) {
+			return Long.compare(nextPollNanos, ((Entry) other).nextPollNanos);
+		}
+	}
+}
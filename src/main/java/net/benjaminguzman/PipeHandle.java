@@ -0,0 +1,82 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Handle to a {@link Pipe} started with {@link Pipe#start(java.util.concurrent.Executor)} or
+ * {@link Pipe#startVirtual()}
+ */
+public final class PipeHandle {
+	@NotNull
+	private final Pipe pipe;
+
+	@NotNull
+	final CompletableFuture<PipeStats> completion = new CompletableFuture<>();
+
+	PipeHandle(@NotNull Pipe pipe) {
+		this.pipe = pipe;
+	}
+
+	@NotNull
+	public Pipe getPipe() {
+		return pipe;
+	}
+
+	/**
+	 * @return a future completed with the final statistics once the input stream has no more data.
+	 * It is completed exceptionally with the first exception that occurred while reading or writing
+	 * (the same passed to the onException callback), or with any exception thrown by a hook.
+	 * Hooks run on a hook executor (see {@link Pipe.Builder#setHookExecutor(Executor, int,
+	 * OverflowPolicy)}) may still be running when the input ends, so only their exceptions thrown before that are
+	 * taken into account.
+	 * <p>
+	 * Completing the returned future doesn't affect the pipe
+	 */
+	@NotNull
+	public CompletableFuture<PipeStats> completion() {
+		return completion.copy();
+	}
+
+	/**
+	 * @return the current statistics of the pipe
+	 */
+	@NotNull
+	public PipeStats stats() {
+		return pipe.getStats();
+	}
+
+	/**
+	 * @return true if the pipe has finished
+	 */
+	public boolean isDone() {
+		return completion.isDone();
+	}
+}
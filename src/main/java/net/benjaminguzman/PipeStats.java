@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+
+/**
+ * Snapshot of the statistics of a {@link Pipe}
+ *
+ * @see Pipe#getStats()
+ */
+public final class PipeStats {
+	static final PipeStats EMPTY = new PipeStats(0, 0, 0, 0, 0, 0);
+
+	private final long lines;
+	private final long bytesWritten;
+	private final long hookCalls;
+	private final long droppedLines;
+	private final long droppedHookEvents;
+	private final long elapsedNanos;
+
+	PipeStats(
+		long lines,
+		long bytesWritten,
+		long hookCalls,
+		long droppedLines,
+		long droppedHookEvents,
+		long elapsedNanos
+	) {
+		this.lines = lines;
+		this.bytesWritten = bytesWritten;
+		this.hookCalls = hookCalls;
+		this.droppedLines = droppedLines;
+		this.droppedHookEvents = droppedHookEvents;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @return the sum of these and the other statistics, with the given elapsed time
+	 */
+	@NotNull
+	PipeStats plus(@NotNull PipeStats other, long elapsedNanos) {
+		return new PipeStats(
+			lines + other.lines,
+			bytesWritten + other.bytesWritten,
+			hookCalls + other.hookCalls,
+			droppedLines + other.droppedLines,
+			droppedHookEvents + other.droppedHookEvents,
+			elapsedNanos
+		);
+	}
+
+	/**
+	 * @return number of lines read from the input stream. Always 0 if the input is copied verbatim
+	 * (see {@link Pipe.Builder#isPassthrough()})
+	 */
+	public long getLines() {
+		return lines;
+	}
+
+	/**
+	 * @return number of bytes written to the output stream, excluding header and footer
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * @return number of times a hook pattern was found
+	 */
+	public long getHookCalls() {
+		return hookCalls;
+	}
+
+	/**
+	 * @return see {@link Pipe#getDroppedLines()}
+	 */
+	public long getDroppedLines() {
+		return droppedLines;
+	}
+
+	/**
+	 * @return see {@link Pipe#getDroppedHookEvents()}
+	 */
+	public long getDroppedHookEvents() {
+		return droppedHookEvents;
+	}
+
+	/**
+	 * @return time the pipe has been running (or ran, if it has already finished)
+	 */
+	@NotNull
+	public Duration getElapsed() {
+		return Duration.ofNanos(elapsedNanos);
+	}
+
+	@Override
+	public String toString() {
+		return "PipeStats{" +
+			"lines=" + lines +
+			", bytesWritten=" + bytesWritten +
+			", hookCalls=" + hookCalls +
+			", droppedLines=" + droppedLines +
+			", droppedHookEvents=" + droppedHookEvents +
+			", elapsed=" + getElapsed() +
+			'}';
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * How the input of a {@link Pipe} is split into records (lines)
+ * <p>
+ * Except for {@link #LINES} (the default), records are framed on bytes, before any charset decoding, and they're
+ * written as they are read, without transcoding them to the output charset. This makes them safe for binary data
+ * and for tools that delimit their output with NUL (e.g. <code>find -print0</code>). The input charset is only
+ * used to decode records for the hooks, and the output charset only applies to header, footer, prefix and suffix
+ *
+ * @see Pipe.Builder#setRecordFraming(RecordFraming)
+ */
+public final class RecordFraming {
+	enum Kind {
+		LINES,
+		DELIMITER,
+		LENGTH_PREFIXED,
+		FIXED_SIZE
+	}
+
+	/**
+	 * Records terminated by '\n', '\r' or "\r\n", as in {@link java.io.BufferedReader#readLine()}.
+	 * They're written followed by {@link System#lineSeparator()}
+	 */
+	public static final RecordFraming LINES = new RecordFraming(Kind.LINES, null, 0);
+
+	/**
+	 * Records terminated by a '\n' byte. A '\r' before it is kept in the record
+	 */
+	public static final RecordFraming LF = delimiter(new byte[]{'\n'});
+
+	/**
+	 * Records terminated by "\r\n". A '\n' or '\r' alone is kept in the record
+	 */
+	public static final RecordFraming CRLF = delimiter(new byte[]{'\r', '\n'});
+
+	/**
+	 * Records terminated by a NUL byte
+	 */
+	public static final RecordFraming NUL = delimiter(new byte[]{0});
+
+	@NotNull
+	private final Kind kind;
+
+	@Nullable
+	private final byte[] delimiter;
+
+	/**
+	 * Number of bytes of the length header, or size of the records
+	 */
+	private final int size;
+
+	private RecordFraming(@NotNull Kind kind, @Nullable byte[] delimiter, int size) {
+		this.kind = kind;
+		this.delimiter = delimiter;
+		this.size = size;
+	}
+
+	/**
+	 * @param delimiter bytes terminating every record. Records are written followed by the same bytes
+	 * @return framing of records terminated by the given sequence of bytes
+	 * @throws IllegalArgumentException if the delimiter is empty
+	 */
+	@NotNull
+	public static RecordFraming delimiter(byte[] delimiter) {
+		if (delimiter.length == 0)
+			throw new IllegalArgumentException("Delimiter must not be empty");
+		return new RecordFraming(Kind.DELIMITER, delimiter.clone(), 0);
+	}
+
+	/**
+	 * Every record is preceded by its length in bytes, as an unsigned big-endian integer. Records are written
+	 * preceded by their new length (including prefix and suffix) in the same format
+	 * <p>
+	 * Records are given whole, so {@link LongLinePolicy#STREAM} behaves as {@link LongLinePolicy#SPLIT}
+	 * (every piece is written as a record) and partial records are never written
+	 * (see {@link Pipe.Builder#setPartialLineTimeout(java.time.Duration)})
+	 *
+	 * @param headerBytes number of bytes of the length: 1, 2 or 4
+	 * @return framing of length-prefixed records
+	 * @throws IllegalArgumentException if the number of bytes is not 1, 2 or 4
+	 */
+	@NotNull
+	public static RecordFraming lengthPrefixed(int headerBytes) {
+		if (headerBytes != 1 && headerBytes != 2 && headerBytes != 4)
+			throw new IllegalArgumentException("Length header must be 1, 2 or 4 bytes. Given: " + headerBytes);
+		return new RecordFraming(Kind.LENGTH_PREFIXED, null, headerBytes);
+	}
+
+	/**
+	 * No framing at all: the input is split into chunks of the given size (the last one may be shorter),
+	 * which are written without any separator
+	 *
+	 * @param size number of bytes of every record
+	 * @return framing of fixed-size records
+	 * @throws IllegalArgumentException if the size is not positive
+	 */
+	@NotNull
+	public static RecordFraming fixedSize(int size) {
+		if (size <= 0)
+			throw new IllegalArgumentException("Size must be positive. Given: " + size);
+		return new RecordFraming(Kind.FIXED_SIZE, null, size);
+	}
+
+	@NotNull
+	Kind kind() {
+		return kind;
+	}
+
+	/**
+	 * @return the delimiter of {@link Kind#DELIMITER} records. It must not be modified
+	 */
+	byte[] delimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * @return number of bytes of the length of {@link Kind#LENGTH_PREFIXED} records,
+	 * or size of {@link Kind#FIXED_SIZE} records
+	 */
+	int size() {
+		return size;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		RecordFraming that = (RecordFraming) o;
+		return kind == that.kind && size == that.size && Arrays.equals(delimiter, that.delimiter);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * kind.hashCode() + size) + Arrays.hashCode(delimiter);
+	}
+
+	@Override
+	public String toString() {
+		switch (kind) {
+			case DELIMITER:
+				return "RecordFraming{delimiter=" + Arrays.toString(delimiter) + '}';
+			case LENGTH_PREFIXED:
+				return "RecordFraming{lengthPrefixed=" + size + '}';
+			case FIXED_SIZE:
+				return "RecordFraming{fixedSize=" + size + '}';
+			default:
+				return "RecordFraming{lines}";
+		}
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs pipes whose input is a {@link SelectableChannel} (sockets, {@link java.nio.channels.Pipe.SourceChannel},
+ * unix domain sockets...) using non-blocking reads and a single selector thread
+ * <p>
+ * Lines are framed incrementally as bytes arrive, with the same prefix, suffix and hooks semantics as
+ * {@link Pipe#run()}, so a single thread can serve thousands of connections.
+ * The selector thread also writes to the output of the pipes, hence outputs should be fast
+ * (e.g. files or in-memory buffers) and hook consumers should be run asynchronously
+ * (see {@link Pipe.Builder#setHookExecutor(java.util.concurrent.Executor, int, OverflowPolicy)})
+ * <p>
+ * Lines are written in the selector thread, i.e. the writer stage of the pipes is not used
+ */
+public class SelectorPipeEngine implements AutoCloseable {
+	@NotNull
+	private final Selector selector;
+
+	@NotNull
+	private final Thread thread;
+
+	/**
+	 * Pipes waiting to be registered in the selector (registration is done in the selector thread)
+	 */
+	@NotNull
+	private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Pipes registered in the selector
+	 */
+	@NotNull
+	private final Set<Entry> active = ConcurrentHashMap.newKeySet();
+
+	@NotNull
+	private final CountDownLatch terminated = new CountDownLatch(1);
+
+	private final int bufferSize;
+
+	/**
+	 * Sum of the statistics of the pipes that have finished
+	 */
+	@NotNull
+	private PipeStats finishedStats = PipeStats.EMPTY;
+
+	private final long createdNanos = System.nanoTime();
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates the engine with a read buffer of {@link Pipe.Builder#DEFAULT_BUFFER_SIZE} bytes
+	 *
+	 * @throws IOException if the selector can't be opened
+	 */
+	public SelectorPipeEngine() throws IOException {
+		this(Pipe.Builder.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param bufferSize size (in bytes) of the read buffer, shared by every pipe
+	 * @throws IOException if the selector can't be opened
+	 */
+	public SelectorPipeEngine(int bufferSize) throws IOException {
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("Buffer size must be positive. Given: " + bufferSize);
+		this.bufferSize = bufferSize;
+		this.selector = Selector.open();
+		this.thread = ThreadSupport.newPlatformThread(this::loop, "Pipe-Selector");
+		this.thread.start();
+	}
+
+	/**
+	 * Adds a pipe to the engine. The pipe must not be run by other means
+	 * <p>
+	 * The input channel is configured in non-blocking mode
+	 *
+	 * @param pipe the pipe. It must have been built with a {@link SelectableChannel} as input
+	 *             (see {@link Pipe.Builder#Builder(ReadableByteChannel, java.nio.channels.WritableByteChannel)})
+	 * @return a handle to follow the execution of the pipe
+	 * @throws IllegalArgumentException if the input of the pipe is not a selectable channel
+	 * @throws IllegalStateException    if the engine has been closed
+	 * @throws IOException              if the channel can't be configured in non-blocking mode
+	 */
+	@NotNull
+	public PipeHandle add(@NotNull Pipe pipe) throws IOException {
+		if (!(pipe.getOptions().getInChannel() instanceof SelectableChannel))
+			throw new IllegalArgumentException("Input of the pipe must be a SelectableChannel");
+		if (closed)
+			throw new IllegalStateException("Selector engine has been closed");
+
+		SelectableChannel channel = (SelectableChannel) pipe.getOptions().getInChannel();
+		channel.configureBlocking(false);
+
+		Entry entry = new Entry(pipe, channel);
+		pending.add(entry);
+		selector.wakeup();
+		return entry.handle;
+	}
+
+	/**
+	 * @return number of pipes that haven't finished
+	 */
+	public int size() {
+		return active.size() + pending.size();
+	}
+
+	/**
+	 * @return the sum of the statistics of every pipe in the engine (including the finished ones).
+	 * Elapsed time is the time since the engine was created
+	 */
+	@NotNull
+	public PipeStats getStats() {
+		long elapsed = System.nanoTime() - createdNanos;
+		synchronized (this) {
+			PipeStats stats = finishedStats.plus(PipeStats.EMPTY, elapsed);
+			for (Entry entry : active)
+				stats = stats.plus(entry.pipe.getStats(), elapsed);
+			return stats;
+		}
+	}
+
+	/**
+	 * Waits until the selector thread has finished
+	 *
+	 * @return true if it finished, false if the timeout elapsed
+	 */
+	public boolean awaitTermination(@NotNull Duration timeout) throws InterruptedException {
+		return terminated.await(timeout.toNanos(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stops the selector thread. Pipes that haven't finished are aborted: their input channel is closed,
+	 * the output is closed (if configured to) and their handles are completed with a
+	 * {@link CancellationException}
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+	}
+
+	private void loop() {
+		byte[] buffer = new byte[bufferSize];
+		CharBuffer chars = CharBuffer.allocate(bufferSize);
+		try {
+			while (!closed) {
+				selector.select();
+				registerPending(chars);
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Entry entry = (Entry) key.attachment();
+
+					int n;
+					try {
+						n = entry.stepper.read((ReadableByteChannel) key.channel(), buffer, chars);
+					} catch (RuntimeException e) {
+						key.cancel();
+						entry.stepper.finish(false, chars);
+						entry.handle.completion.completeExceptionally(e);
+						finished(entry);
+						continue;
+					}
+
+					if (n < 0) {
+						key.cancel();
+						entry.pipe.complete(entry.handle);
+						finished(entry);
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			// selector is broken, abort every pipe
+		} finally {
+			abortAll(chars);
+			terminated.countDown();
+		}
+	}
+
+	private void registerPending(@NotNull CharBuffer chars) {
+		Entry entry;
+		while ((entry = pending.poll()) != null) {
+			active.add(entry);
+			entry.stepper.start();
+			if (entry.stepper.isDone()) { // header couldn't be written
+				entry.pipe.complete(entry.handle);
+				finished(entry);
+				continue;
+			}
+
+			try {
+				entry.channel.register(selector, SelectionKey.OP_READ, entry);
+			} catch (IOException e) {
+				entry.stepper.finish(false, chars);
+				entry.handle.completion.completeExceptionally(e);
+				finished(entry);
+			}
+		}
+	}
+
+	private void abortAll(@NotNull CharBuffer chars) {
+		CancellationException cancelled = new CancellationException("Selector engine was closed");
+		for (Entry entry : active) {
+			entry.stepper.finish(false, chars);
+			entry.handle.completion.completeExceptionally(cancelled);
+			finished(entry);
+		}
+		try {
+			selector.close();
+		} catch (IOException ignored) {
+		}
+
+		Entry entry;
+		while ((entry = pending.poll()) != null) {
+			try {
+				entry.channel.close();
+			} catch (IOException ignored) {
+			}
+			entry.handle.completion.completeExceptionally(cancelled);
+		}
+	}
+
+	private void finished(@NotNull Entry entry) {
+		synchronized (this) {
+			finishedStats = finishedStats.plus(entry.pipe.getStats(), 0);
+			active.remove(entry);
+		}
+	}
+
+	private static final class Entry {
+		@NotNull
+		private final Pipe pipe;
+
+		@NotNull
+		private final SelectableChannel channel;
+
+		@NotNull
+		private final Pipe.Stepper stepper;
+
+		@NotNull
+		private final PipeHandle handle;
+
+		private Entry(@NotNull Pipe pipe, @NotNull SelectableChannel channel) {
+			this.pipe = pipe;
+			this.channel = channel;
+			this.stepper = pipe.new Stepper(() -> false);
+			this.handle = new PipeHandle(pipe);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer thread
+ * <p>
+ * Slots are preallocated when the buffer is created, and each side keeps a cached copy of the other side's
+ * index so it only reads the shared (volatile) index when the buffer seems full or empty
+ *
+ * @param <E> type of the elements
+ */
+final class SpscRingBuffer<E> {
+	/**
+	 * Number of times to busy-spin before parking the thread while waiting
+	 */
+	private static final int SPINS = 128;
+
+	/**
+	 * Maximum time to park the thread while waiting
+	 */
+	private static final long MAX_PARK_NANOS = 1_000_000;
+
+	@NotNull
+	private final Object[] slots;
+
+	private final int mask;
+
+	/**
+	 * Index of the next slot to be read. Only written by the consumer
+	 */
+	@NotNull
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * Index of the next slot to be written. Only written by the producer
+	 */
+	@NotNull
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Last value of head seen by the producer
+	 */
+	private long cachedHead;
+
+	/**
+	 * Last value of tail seen by the consumer
+	 */
+	private long cachedTail;
+
+	/**
+	 * @param capacity minimum capacity of the buffer. It is rounded up to the next power of 2
+	 */
+	SpscRingBuffer(int capacity) {
+		if (capacity <= 0 || capacity > 1 << 30)
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.slots = new Object[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Adds the element if there is room for it. Must be called only from the producer thread
+	 *
+	 * @return false if the buffer is full
+	 */
+	boolean offer(@NotNull E element) {
+		long t = tail.get();
+		if (t - cachedHead >= slots.length) {
+			cachedHead = head.get();
+			if (t - cachedHead >= slots.length)
+				return false;
+		}
+		slots[(int) t & mask] = element;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Adds the element, waiting for room if the buffer is full. Must be called only from the producer thread
+	 */
+	void put(@NotNull E element) {
+		if (offer(element))
+			return;
+
+		boolean interrupted = false;
+		for (int waits = 0; !offer(element); ++waits)
+			interrupted |= idle(waits);
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Removes the next element. Must be called only from the consumer thread
+	 *
+	 * @return the element or null if the buffer is empty
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	E poll() {
+		long h = head.get();
+		if (h >= cachedTail) {
+			cachedTail = tail.get();
+			if (h >= cachedTail)
+				return null;
+		}
+		int i = (int) h & mask;
+		E element = (E) slots[i];
+		slots[i] = null;
+		head.lazySet(h + 1);
+		return element;
+	}
+
+	/**
+	 * Removes the next element, waiting for one if the buffer is empty.
+	 * Must be called only from the consumer thread
+	 */
+	@NotNull
+	E take() {
+		E element = poll();
+		if (element != null)
+			return element;
+
+		boolean interrupted = false;
+		for (int waits = 0; (element = poll()) == null; ++waits)
+			interrupted |= idle(waits);
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return element;
+	}
+
+	/**
+	 * @return true if the buffer looks empty from the consumer side
+	 */
+	boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	/**
+	 * Waits a little bit. The longer it has waited the longer it'll wait (up to {@link #MAX_PARK_NANOS})
+	 *
+	 * @param waits number of times it has already waited
+	 * @return true if the thread was interrupted (the interrupted flag is cleared)
+	 */
+	private static boolean idle(int waits) {
+		if (waits < SPINS) {
+			Thread.onSpinWait();
+			return false;
+		}
+		LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1_000L << Math.min(waits - SPINS, 10)));
+		return Thread.interrupted();
+	}
+}
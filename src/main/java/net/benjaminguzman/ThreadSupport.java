@@ -0,0 +1,63 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Creates the threads used by {@link Pipe}
+ * <p>
+ * This is the Java 11 implementation, which only creates platform threads.
+ * The multi-release jar contains a Java 21 implementation (in src/main/java21) that creates virtual threads
+ */
+final class ThreadSupport {
+	private ThreadSupport() {
+	}
+
+	/**
+	 * @return a new unstarted thread, virtual if the runtime supports it, otherwise a platform daemon thread
+	 */
+	@NotNull
+	static Thread newThread(@NotNull Runnable task, @NotNull String name) {
+		return newPlatformThread(task, name);
+	}
+
+	/**
+	 * @return a new unstarted thread of the same kind (platform or virtual) as the current thread
+	 */
+	@NotNull
+	static Thread newSiblingThread(@NotNull Runnable task, @NotNull String name) {
+		return newPlatformThread(task, name);
+	}
+
+	@NotNull
+	static Thread newPlatformThread(@NotNull Runnable task, @NotNull String name) {
+		Thread t = new Thread(task);
+		t.setDaemon(true);
+		t.setName(name);
+		return t;
+	}
+}
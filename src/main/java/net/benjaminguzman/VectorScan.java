@@ -0,0 +1,62 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+/**
+ * Byte searches using the Vector API (see {@link ByteScanner})
+ * <p>
+ * This is the Java 11 implementation, in which the Vector API is never available, so it gives the results of
+ * the scalar searches of {@link ByteScanner} (which never call it, as {@link #isAvailable()} is false).
+ * The multi-release jar contains a Java 21 implementation (in src/main/java21) that uses the
+ * jdk.incubator.vector module if it was added to the JVM (--add-modules jdk.incubator.vector)
+ */
+final class VectorScan {
+	private VectorScan() {
+	}
+
+	/**
+	 * @return true if the methods of this class can be used
+	 */
+	static boolean isAvailable() {
+		return false;
+	}
+
+	static int indexOf(byte[] array, int from, int to, byte b) {
+		return ByteScanner.indexOf(array, from, to, b);
+	}
+
+	static int indexOf(byte[] array, int from, int to, byte b1, byte b2) {
+		return ByteScanner.indexOf(array, from, to, b1, b2);
+	}
+
+	static int indexOfAny(byte[] array, int from, int to, byte[] set) {
+		return ByteScanner.indexOfAny(array, from, to, set);
+	}
+
+	static boolean isAscii(byte[] array, int from, int to) {
+		return ByteScanner.isAscii(array, from, to);
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Byte searches using the Vector API (see {@link ByteScanner})
+ * <p>
+ * This is the Java 21 implementation, included in the multi-release jar, which compares a whole vector of bytes
+ * (32 or 64 with AVX2 or AVX-512) at a time. The Vector API is still incubating, so it is only used if the
+ * jdk.incubator.vector module was added to the JVM (--add-modules jdk.incubator.vector).
+ * Vector classes are only referenced by {@link Impl}, which is not loaded otherwise
+ */
+final class VectorScan {
+	private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+	private VectorScan() {
+	}
+
+	/**
+	 * @return true if the methods of this class can be used
+	 */
+	static boolean isAvailable() {
+		return AVAILABLE;
+	}
+
+	static int indexOf(byte[] array, int from, int to, byte b) {
+		return Impl.indexOf(array, from, to, b);
+	}
+
+	static int indexOf(byte[] array, int from, int to, byte b1, byte b2) {
+		return Impl.indexOf(array, from, to, b1, b2);
+	}
+
+	static int indexOfAny(byte[] array, int from, int to, byte[] set) {
+		return Impl.indexOfAny(array, from, to, set);
+	}
+
+	static boolean isAscii(byte[] array, int from, int to) {
+		return Impl.isAscii(array, from, to);
+	}
+
+	private static final class Impl {
+		private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+		static int indexOf(byte[] array, int from, int to, byte b) {
+			int i = from;
+			for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+				VectorMask<Byte> found = ByteVector.fromArray(SPECIES, array, i).eq(b);
+				if (found.anyTrue())
+					return i + found.firstTrue();
+			}
+			for (; i < to; ++i)
+				if (array[i] == b)
+					return i;
+			return -1;
+		}
+
+		static int indexOf(byte[] array, int from, int to, byte b1, byte b2) {
+			int i = from;
+			for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+				ByteVector vector = ByteVector.fromArray(SPECIES, array, i);
+				VectorMask<Byte> found = vector.eq(b1).or(vector.eq(b2));
+				if (found.anyTrue())
+					return i + found.firstTrue();
+			}
+			for (; i < to; ++i)
+				if (array[i] == b1 || array[i] == b2)
+					return i;
+			return -1;
+		}
+
+		static int indexOfAny(byte[] array, int from, int to, byte[] set) {
+			int i = from;
+			for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+				ByteVector vector = ByteVector.fromArray(SPECIES, array, i);
+				VectorMask<Byte> found = vector.eq(set[0]);
+				for (int j = 1; j < set.length; ++j)
+					found = found.or(vector.eq(set[j]));
+				if (found.anyTrue())
+					return i + found.firstTrue();
+			}
+			for (; i < to; ++i)
+				for (byte b : set)
+					if (array[i] == b)
+						return i;
+			return -1;
+		}
+
+		static boolean isAscii(byte[] array, int from, int to) {
+			int i = from;
+			for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length())
+				if (ByteVector.fromArray(SPECIES, array, i).compare(VectorOperators.LT, (byte) 0).anyTrue())
+					return false;
+			for (; i < to; ++i)
+				if (array[i] < 0)
+					return false;
+			return true;
+		}
+	}
+}
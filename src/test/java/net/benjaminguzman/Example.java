@@ -26,20 +26,13 @@
 package net.benjaminguzman;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.function.Consumer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
 
 public class Example {
 	public static void main(String... args) throws IOException, InterruptedException {
-		CountDownLatch latch = new CountDownLatch(1); // latch to wait for the service to start
-		HashMap<Pattern, Consumer<String>> map = new HashMap<>();
-		map.put(
-			Pattern.compile("Service is (up|running)"), // pattern to search (must be simple)
-			s -> latch.countDown() // callback to execute when the pattern is found
-		);
-
 		// simulate a process start
 		String echoString = "Starting service...\n" +
 			"Configuration loaded\n" +
@@ -54,62 +47,23 @@ public class Example {
 				.setPrefix("[Service]: ")
 				.setHeader("--- BEGIN Service startup ---\n")
 				.setFooter("--- END Service startup (output was closed) ---\n")
-				.setHooks(map)
 				.setCloseOutStream(false) // if true System.out will be closed after pipe is finished
+				.setRuntimeHooks(true) // not needed here because of the prefix, but needed to await a plain pipe
+		);
+
+		// wait for the service to start. Registered before starting the pipe, so no line is missed
+		CompletableFuture<MatchResult> started = pipe.awaitPatternAsync(
+			Pattern.compile("Service is (up|running)"), // pattern to search
+			Duration.ofSeconds(10) // the future fails if the pattern is not found by then, or the output ends
 		);
 
 		// start piping, thread is not needed but recommended, use pipe.run() to run without a thread
 		Thread t = pipe.initThread();
 		t.start();
 
-		latch.await(); // wait until the latch is countdown (when pattern is found, see above)
+		started.join(); // wait until the pattern is found
 		System.out.println("Service has started. It is time to run something else");
 
 		t.join(); // wait for a clean shutdown
 	}
 }
-/*
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.function.Consumer;
-import java.util.regex.Pattern;
-
-public class Example {
-    public static void main(String... args) throws IOException, InterruptedException {
-        CountDownLatch latch = new CountDownLatch(1); // latch to wait for the service to start
-        HashMap<Pattern, Consumer<String>> map = new HashMap<>();
-        map.put(
-            Pattern.compile("Service is (up|running)"), // pattern to search (must be simple)
-            s -> latch.countDown() // callback to execute when the pattern is found
-        );
-
-        // simulate a process start
-        String echoString = "Starting service...\n" +
-            "Configuration loaded\n" +
-            "Starting something else inside service\n" +
-            "Starting another thing or dependency\n" +
-            "Service is running on 127.0.0.1:1111";
-        Process proc = new ProcessBuilder("echo", "-e", echoString).start();
-
-        // initialize the pipe
-        Pipe pipe = new Pipe(
-            new Pipe.Builder(proc.getInputStream(), System.out)
-                .setPrefix("[Service]: ")
-                .setHeader("--- BEGIN Service startup ---\n")
-                .setFooter("--- END Service startup (output was closed)---\n")
-                .setHooks(map)
-                .setCloseOutStream(false) // if true System.out will be closed after pipe is finished
-        );
-
-        // start piping, thread is not needed but recommended, use pipe.run() to run without a thread
-        Thread t = pipe.initThread();
-        t.start();
-
-        latch.await(); // wait until the latch is countdown (when pattern is found, see above)
-        System.out.println("Service has started. It is time to run something else");
-
-        t.join(); // wait for a clean shutdown
-    }
-}
- */
\ No newline at end of file
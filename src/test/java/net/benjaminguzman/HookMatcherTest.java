@@ -0,0 +1,237 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HookMatcherTest {
+	@Test
+	@DisplayName("Testing literals are extracted from patterns")
+	void literals() {
+		assertEquals("Service is running", HookMatcher.literalOf(Pattern.compile("Service is running")));
+		assertEquals("a.b(c)", HookMatcher.literalOf(Pattern.compile("a.b(c)", Pattern.LITERAL)));
+		assertEquals("1.2.3", HookMatcher.literalOf(Pattern.compile("1\\.2\\.3")));
+		assertEquals("x*y", HookMatcher.literalOf(Pattern.compile("\\Qx*y\\E")));
+		assertNull(HookMatcher.literalOf(Pattern.compile("Service is (up|running)")));
+		assertNull(HookMatcher.literalOf(Pattern.compile("service", Pattern.CASE_INSENSITIVE)));
+		assertNull(HookMatcher.literalOf(Pattern.compile("\\d+")));
+
+		assertEquals("Service is ", HookMatcher.requiredLiteralOf(Pattern.compile("Service is (up|running)")));
+		assertEquals("Error", HookMatcher.requiredLiteralOf(Pattern.compile("Errors?")));
+		assertEquals("ab", HookMatcher.requiredLiteralOf(Pattern.compile("ab+")));
+		// a quantified supplementary character is removed whole, not leaving half a surrogate pair
+		assertEquals("ab", HookMatcher.requiredLiteralOf(Pattern.compile("ab\uD83D\uDE00?x")));
+		assertEquals(1, new HookMatcher(Map.of(Pattern.compile("a\uD83D\uDE00?x"), line -> {})).match("ax"));
+		assertNull(HookMatcher.requiredLiteralOf(Pattern.compile("up|running")));
+		assertEquals("ERROR ", HookMatcher.requiredLiteralOf(Pattern.compile(".*ERROR \\d+")));
+		assertEquals(" connection ", HookMatcher.requiredLiteralOf(Pattern.compile("\\d{2}: (a|b) connection [^)]+")));
+		assertEquals("bc", HookMatcher.requiredLiteralOf(Pattern.compile("[)a]bc(x[)y]z)?\\x41\\p{L}")));
+		assertEquals("to(x", HookMatcher.requiredLiteralOf(Pattern.compile("[]ab]to\\Q(x)\\E?")));
+		assertNull(HookMatcher.requiredLiteralOf(Pattern.compile("(?i)error")));
+		assertNull(HookMatcher.requiredLiteralOf(Pattern.compile("\\d+[a-z]*")));
+	}
+
+	@Test
+	@DisplayName("Testing hooks are called exactly as if every pattern was evaluated with a regex")
+	void matchesLikeRegex() {
+		String[] regexes = {
+			"he", "she", "his", "hers", "h", "Service is (up|running)", "s?he", "[0-9]+", "r\\.s", "ñandú",
+			"dú", "(?i)HERS", "x|he", "\\Qs.h\\E", ".*ers? [0-9]+", "[^h]is\\b", "(a|l)ñ?d+ú"
+		};
+		Map<Pattern, Consumer<String>> hooks = new LinkedHashMap<>();
+		List<String> calls = new ArrayList<>();
+		for (String regex : regexes)
+			hooks.put(Pattern.compile(regex), line -> calls.add(regex + "@" + line));
+		HookMatcher matcher = new HookMatcher(hooks);
+
+		Random random = new Random(42);
+		String alphabet = "hersiuvcpnglañdú0.1 S";
+		for (int n = 0; n < 2000; ++n) {
+			StringBuilder line = new StringBuilder();
+			for (int i = random.nextInt(30); i > 0; --i)
+				line.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			if (n % 10 == 0)
+				line.append("Service is up");
+
+			List<String> expected = new ArrayList<>();
+			hooks.keySet().forEach(pattern -> {
+				if (pattern.matcher(line).find())
+					expected.add(pattern.pattern() + "@" + line);
+			});
+
+			calls.clear();
+			matcher.match(line.toString());
+			assertEquals(expected, calls);
+		}
+	}
+
+	@Test
+	@DisplayName("Testing lines given as bytes are prefiltered by the first bytes of the literals")
+	void prefilter() {
+		List<String> calls = new ArrayList<>();
+		List<Hook> hooks = List.of(
+			Hook.of(Pattern.compile("ñandú"), calls::add),
+			Hook.of(Pattern.compile("Service is (up|running)"), calls::add)
+		);
+		HookMatcher matcher = new HookMatcher(hooks, null, StandardCharsets.UTF_8, false);
+		ByteLineDecoder decoder = new ByteLineDecoder(StandardCharsets.UTF_8);
+
+		for (String line : new String[]{"nothing to see", "un ñandú", "Service is up", "service is up", "ñu"}) {
+			byte[] bytes = ("> " + line).getBytes(StandardCharsets.UTF_8);
+			matcher.match(bytes, 2, bytes.length - 2, decoder);
+		}
+		assertEquals(List.of("un ñandú", "Service is up"), calls);
+
+		// hooks called for a partial line are not called again when it is complete,
+		// but they're called for the next line even if the partial line was prefiltered
+		calls.clear();
+		byte[] bytes = "Service is up\nService is up".getBytes(StandardCharsets.UTF_8);
+		assertEquals(1, matcher.matchPartial(bytes, 0, 13, decoder));
+		assertEquals(0, matcher.match(bytes, 0, 13, decoder));
+		assertEquals(0, matcher.matchPartial(bytes, 0, 2, decoder));
+		assertEquals(1, matcher.match(bytes, 14, 13, decoder));
+		assertEquals(List.of("Service is up", "Service is up"), calls);
+	}
+
+	@Test
+	@DisplayName("Testing limited hooks are removed once they expire")
+	void expiration() {
+		List<String> calls = new ArrayList<>();
+		HookMatcher matcher = new HookMatcher(List.of(
+			Hook.of(Pattern.compile("ready"), line -> calls.add("once")).once(),
+			Hook.of(Pattern.compile("re+ady"), line -> calls.add("twice")).times(2),
+			Hook.of(Pattern.compile("ready"), line -> calls.add("deadline")).expiresAfter(Duration.ofSeconds(1)),
+			Hook.of(Pattern.compile("ready"), line -> calls.add("always"))
+		), null, null, false);
+
+		long now = System.nanoTime();
+		matcher.setPosition(1, -1, now);
+		assertEquals(4, matcher.matchPartial("ready"));
+		assertTrue(matcher.hasExpired());
+		assertEquals(List.of("once", "twice", "deadline", "always"), calls);
+
+		// the matcher without the expired hook keeps the hooks called for the partial line
+		matcher = matcher.withoutExpired();
+		assertNotNull(matcher);
+		assertFalse(matcher.hasExpired());
+		calls.clear();
+		assertEquals(0, matcher.match("ready ready"));
+		matcher.setPosition(2, -1, now);
+		assertEquals(0, matcher.match("nothing"));
+		assertEquals(3, matcher.match("ready"));
+		assertEquals(List.of("twice", "deadline", "always"), calls);
+		assertTrue(matcher.hasExpired());
+
+		// the deadline is compared with the time lines are read
+		matcher = matcher.withoutExpired();
+		calls.clear();
+		matcher.setPosition(3, -1, now + Duration.ofSeconds(2).toNanos());
+		assertEquals(1, matcher.match("ready"));
+		assertEquals(List.of("always"), calls);
+		assertTrue(matcher.hasExpired());
+		assertEquals(1, matcher.withoutExpired().match("ready"));
+
+		HookMatcher onlyOnce = new HookMatcher(
+			List.of(Hook.of(Pattern.compile("x"), calls::add).once()),
+			null,
+			null,
+			false
+		);
+		assertEquals(1, onlyOnce.match("x"));
+		assertNull(onlyOnce.withoutExpired());
+		assertThrows(IllegalArgumentException.class, () -> Hook.of(Pattern.compile("x"), calls::add).times(0));
+
+		// deadlines are checked even for lines discarded by the prefilter
+		HookMatcher prefiltered = new HookMatcher(
+			List.of(Hook.of(Pattern.compile("ready"), calls::add).expiresAfter(Duration.ofSeconds(1))),
+			null,
+			StandardCharsets.UTF_8,
+			false
+		);
+		byte[] line = "nothing".getBytes(StandardCharsets.UTF_8);
+		prefiltered.setPosition(1, 0, now + Duration.ofSeconds(2).toNanos());
+		assertFalse(prefiltered.mayMatch(line, 0, line.length));
+		assertTrue(prefiltered.hasExpired());
+		assertNull(prefiltered.withoutExpired());
+	}
+
+	@Test
+	@DisplayName("Testing hooks are called in order of priority, and only the first one if requested")
+	void priorities() {
+		List<String> calls = new ArrayList<>();
+		List<Hook> hooks = List.of(
+			Hook.of(Pattern.compile("WARN|ERROR"), line -> calls.add("problem")),
+			Hook.of(Pattern.compile("ERROR"), line -> calls.add("error")).withPriority(10),
+			Hook.of(Pattern.compile("ERROR \\d+"), line -> calls.add("coded error")).withPriority(10).once(),
+			Hook.of(Pattern.compile(".*"), line -> calls.add("any")).withPriority(-1)
+		);
+
+		HookMatcher all = new HookMatcher(hooks, null, null, false);
+		assertEquals(4, all.match("ERROR 42"));
+		assertEquals(List.of("error", "coded error", "problem", "any"), calls);
+
+		calls.clear();
+		HookMatcher first = new HookMatcher(hooks, null, null, true);
+		assertEquals(1, first.match("ERROR 42"));
+		assertEquals(1, first.match("WARN"));
+		assertEquals(1, first.match("INFO"));
+		assertEquals(List.of("error", "problem", "any"), calls);
+
+		// the first hook found is skipped once expired, and new hooks are sorted by priority too
+		calls.clear();
+		first = new HookMatcher(hooks.subList(2, 4), null, null, true);
+		assertEquals(1, first.match("ERROR 1"));
+		assertEquals(1, first.match("ERROR 2"));
+		first = first.withChanges(
+			List.of(),
+			List.of(Hook.of(Pattern.compile("ERROR"), line -> calls.add("new error")).withPriority(5)),
+			Set.of()
+		);
+		assertNotNull(first);
+		assertEquals(1, first.match("ERROR 3"));
+		assertEquals(List.of("coded error", "any", "new error"), calls);
+
+		// a hook called for the partial line is the only one called for the line
+		calls.clear();
+		first.matchPartial("WARN");
+		assertEquals(0, first.match("WARN ERROR"));
+		assertEquals(List.of("any"), calls);
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineSplitterTest {
+	@Test
+	@DisplayName("Testing lines split across chunks, with every kind of line terminator")
+	void chunks() throws IOException {
+		List<String> lines = new ArrayList<>();
+		LineSplitter splitter = new LineSplitter();
+		String text = "first\nsecond\r\nthird\rfourth line is longer than the internal buffer of the splitter, "
+			+ "so it has to grow a couple of times before the line is complete\r\n\nlast";
+
+		// feed it in chunks of every size, so terminators are split between chunks
+		for (int chunk = 1; chunk <= text.length(); chunk += 7) {
+			lines.clear();
+			char[] chars = text.toCharArray();
+			for (int i = 0; i < chars.length; i += chunk)
+				splitter.feed(chars, i, Math.min(chunk, chars.length - i), line -> lines.add(line.toString()));
+			splitter.finish(line -> lines.add(line.toString()));
+
+			assertEquals(6, lines.size());
+			assertEquals("first", lines.get(0));
+			assertEquals("second", lines.get(1));
+			assertEquals("third", lines.get(2));
+			assertTrue(lines.get(3).startsWith("fourth") && lines.get(3).endsWith("complete"));
+			assertEquals("", lines.get(4));
+			assertEquals("last", lines.get(5));
+		}
+	}
+
+	@Test
+	@DisplayName("Testing lines within a chunk are views over the chunk")
+	void views() throws IOException {
+		char[] chars = "a\nbc\nd".toCharArray();
+		List<Boolean> more = new ArrayList<>();
+		LineSplitter splitter = new LineSplitter();
+		splitter.feed(chars, 0, chars.length, line -> {
+			assertSame(chars, line.array());
+			more.add(splitter.hasMoreInChunk());
+		});
+		assertEquals(List.of(true, true), more);
+		assertFalse(splitter.hasMoreInChunk());
+
+		splitter.finish(line -> assertEquals("d", line.toString()));
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipeGroupTest {
+	@Test
+	@DisplayName("Testing many pipes are run by a few workers")
+	void manyPipes() throws Exception {
+		AtomicInteger hooks = new AtomicInteger();
+		HashMap<Pattern, Consumer<String>> map = new HashMap<>();
+		map.put(Pattern.compile("ñ"), s -> hooks.incrementAndGet());
+
+		// small buffers, so multi-byte characters and \r\n are split between reads
+		try (PipeGroup group = new PipeGroup(3, Duration.ofMillis(1), 7)) {
+			List<ByteArrayOutputStream> outputs = new ArrayList<>();
+			List<PipeHandle> handles = new ArrayList<>();
+			for (int i = 0; i < 50; ++i) {
+				String input = "pipe " + i + " año\r\nsecond\rthird ñ\n\nlast";
+				ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+				outputs.add(outStream);
+				handles.add(group.add(new Pipe(
+					new Pipe.Builder(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), outStream)
+						.setHeader("-- Header --\n")
+						.setFooter("-- Footer --\n")
+						.setPrefix("> ")
+						.setHooks(map)
+				)));
+			}
+
+			for (int i = 0; i < 50; ++i) {
+				PipeStats stats = handles.get(i).completion().get(10, TimeUnit.SECONDS);
+				assertEquals(5, stats.getLines());
+				String nl = System.lineSeparator();
+				assertEquals(
+					"-- Header --\n> pipe " + i + " año" + nl + "> second" + nl + "> third ñ" + nl + "> " + nl
+						+ "> last" + nl + "-- Footer --\n",
+					outputs.get(i).toString(StandardCharsets.UTF_8)
+				);
+			}
+			assertEquals(100, hooks.get());
+			assertEquals(250, group.getStats().getLines());
+			assertEquals(0, group.size());
+		}
+	}
+
+	@Test
+	@DisplayName("Testing pipes of processes and shutdown")
+	void processes() throws Exception {
+		PipeGroup group = new PipeGroup(1);
+		Process proc = new ProcessBuilder("echo", "Service is running").start();
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		PipeHandle handle = group.add(new Pipe(new Pipe.Builder(proc.getInputStream(), outStream)), proc);
+
+		group.shutdown();
+		assertTrue(group.awaitTermination(Duration.ofSeconds(10)));
+		assertTrue(handle.isDone());
+		assertEquals("Service is running\n", outStream.toString(StandardCharsets.UTF_8));
+		assertThrows(
+			IllegalStateException.class,
+			() -> group.add(new Pipe(new Pipe.Builder(proc.getInputStream(), outStream)))
+		);
+	}
+
+	@Test
+	@DisplayName("Testing unfinished pipes are aborted when the group is closed")
+	void close() throws IOException, InterruptedException {
+		PipedOutputStream producer = new PipedOutputStream();
+		PipedInputStream inStream = new PipedInputStream(producer);
+		producer.write("never finishes\n".getBytes(StandardCharsets.UTF_8));
+
+		PipeGroup group = new PipeGroup(2);
+		PipeHandle handle = group.add(new Pipe(new Pipe.Builder(inStream, new ByteArrayOutputStream())), () -> false);
+		group.close();
+		assertTrue(group.awaitTermination(Duration.ofSeconds(10)));
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> handle.completion().get());
+		assertTrue(e.getCause() instanceof CancellationException);
+		producer.close();
+	}
+}
@@ -29,9 +29,32 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -145,4 +168,853 @@ class PipeTest {
 		t.start();
 		t.join(); // wait until pipe has ended (no more data in input stream)
 	}
-}
\ No newline at end of file
+
+	@Test
+	@DisplayName("Testing input is copied verbatim when no line transformation is needed")
+	void passthrough() {
+		String input = "first line\r\nsecond line\n\nlast line without new line";
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+
+		Pipe.Builder builder = new Pipe.Builder(
+			new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+			outStream
+		)
+			.setHeader("-- Header --\n")
+			.setFooter("-- Footer --\n")
+			.setBufferSize(4);
+		assertTrue(builder.isPassthrough());
+		assertFalse(new Pipe.Builder(new ByteArrayInputStream(new byte[0]), outStream).setPrefix("").isPassthrough());
+
+		new Pipe(builder).run();
+
+		assertEquals(builder.getHeader() + input + builder.getFooter(), outStream.toString(StandardCharsets.UTF_8));
+		assertThrows(IllegalArgumentException.class, () -> builder.setBufferSize(0));
+	}
+
+	@Test
+	@DisplayName("Testing lines are written as bytes and transcoded between charsets")
+	void charsets() {
+		String nl = System.lineSeparator();
+		String input = "ascii line\r\nlínea en español\n\u65e5\u672c\u8a9e \ud83d\ude00\nlast";
+		String expected = "> ascii line <" + nl + "> línea en español <" + nl + "> \u65e5\u672c\u8a9e \ud83d\ude00 <"
+			+ nl + "> last <" + nl;
+		List<String> matched = new ArrayList<>();
+		HashMap<Pattern, Consumer<String>> hooks = new HashMap<>();
+		hooks.put(Pattern.compile("ñ|\u672c"), matched::add);
+
+		// same charset: lines are copied as bytes, and decoded only for the hooks
+		for (int bufferSize : new int[]{3, 4096}) {
+			matched.clear();
+			ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+			Pipe pipe = new Pipe(
+				new Pipe.Builder(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), outStream)
+					.setPrefix("> ")
+					.setSuffix(" <")
+					.setHooks(hooks)
+					.setBufferSize(bufferSize)
+			);
+			pipe.run();
+			assertEquals(expected, outStream.toString(StandardCharsets.UTF_8));
+			assertEquals(List.of("línea en español", "\u65e5\u672c\u8a9e \ud83d\ude00"), matched);
+			assertEquals(expected.getBytes(StandardCharsets.UTF_8).length, pipe.getStats().getBytesWritten());
+		}
+
+		// UTF-8 -> UTF-16
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		new Pipe(
+			new Pipe.Builder(
+				new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+				outStream,
+				StandardCharsets.UTF_8,
+				StandardCharsets.UTF_16BE
+			).setPrefix("> ").setSuffix(" <").setBufferSize(5)
+		).run();
+		assertEquals(expected, outStream.toString(StandardCharsets.UTF_16BE));
+
+		// unmappable characters are replaced
+		outStream = new ByteArrayOutputStream();
+		new Pipe(
+			new Pipe.Builder(
+				new ByteArrayInputStream("año \u65e5\n".getBytes(StandardCharsets.UTF_8)),
+				outStream,
+				StandardCharsets.UTF_8,
+				StandardCharsets.ISO_8859_1
+			)
+		).run();
+		assertEquals("año ?" + nl, outStream.toString(StandardCharsets.ISO_8859_1));
+	}
+
+	@Test
+	@DisplayName("Testing match hooks are given groups, line numbers and byte offsets")
+	void matchHooks() {
+		String input = "starting\r\nlistening on :8080\nañadido\nlistening on :9090 (ready)";
+		HashMap<Pattern, MatchHook> hooks = new HashMap<>();
+		List<String> matches = new ArrayList<>();
+		hooks.put(Pattern.compile("listening on :(\\d+)"), (line, match, lineNumber, byteOffset, readNanos) -> {
+			assertTrue(readNanos <= System.nanoTime());
+			matches.add(match.group(1) + "@" + lineNumber + ":" + byteOffset + ":" + match.start(1));
+		});
+		hooks.put(Pattern.compile("ready"), (line, match, lineNumber, byteOffset, readNanos) ->
+			matches.add(match.group() + "@" + lineNumber + ":" + byteOffset + ":" + match.start()));
+
+		// lines framed as bytes
+		for (int bufferSize : new int[]{3, 4096}) {
+			matches.clear();
+			Pipe.Builder builder = new Pipe.Builder(
+				new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+				new ByteArrayOutputStream()
+			)
+				.setMatchHooks(hooks)
+				.setBufferSize(bufferSize);
+			assertFalse(builder.isPassthrough());
+			Pipe pipe = new Pipe(builder);
+			pipe.run();
+
+			Collections.sort(matches);
+			assertEquals(List.of("8080@2:10:14", "9090@4:38:14", "ready@4:38:20"), matches);
+			assertEquals(3, pipe.getStats().getHookCalls());
+		}
+
+		// lines decoded before framing them
+		matches.clear();
+		new Pipe(
+			new Pipe.Builder(
+				new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+				new ByteArrayOutputStream(),
+				StandardCharsets.UTF_8,
+				StandardCharsets.UTF_16BE
+			).setMatchHooks(hooks).setBufferSize(5)
+		).run();
+		Collections.sort(matches);
+		assertEquals(List.of("8080@2:-1:14", "9090@4:-1:14", "ready@4:-1:20"), matches);
+	}
+
+	@Test
+	@DisplayName("Testing limited hooks stop being called once they expire")
+	void limitedHooks() {
+		StringBuilder input = new StringBuilder("Starting service...\n");
+		for (int i = 0; i < 100; ++i)
+			input.append("Service is running ").append(i).append('\n');
+		List<String> calls = new ArrayList<>();
+		Pipe pipe = new Pipe(
+			new Pipe.Builder(
+				new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)),
+				new ByteArrayOutputStream()
+			)
+				.addHook(Hook.of(Pattern.compile("Service is running"), calls::add).once())
+				.addHook(Hook.of(Pattern.compile("running (\\d+)"), (line, match, lineNumber, offset, nanos) ->
+					calls.add(match.group(1) + "@" + lineNumber)).times(3))
+				.setBufferSize(16)
+		);
+		pipe.run();
+
+		assertEquals(List.of("Service is running 0", "0@2", "1@3", "2@4"), calls);
+		assertEquals(4, pipe.getStats().getHookCalls());
+		assertEquals(101, pipe.getStats().getLines());
+	}
+
+	@Test
+	@DisplayName("Testing awaitPattern completes on match, timeout and end of input")
+	void awaitPattern() throws IOException, InterruptedException {
+		String input = "Starting service...\nService is running on 127.0.0.1:1111\nService is running";
+		Pipe pipe = new Pipe(
+			new Pipe.Builder(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream())
+				.setPrefix("[Service]: ")
+				.setHookExecutor(Executors.newSingleThreadExecutor(), 16, OverflowPolicy.BLOCK)
+		);
+		CompletableFuture<MatchResult> started = pipe.awaitPatternAsync(
+			Pattern.compile("Service is (up|running) on [\\d.]+:(\\d+)"),
+			Duration.ofSeconds(10)
+		);
+		CompletableFuture<MatchResult> stopped = pipe.awaitPatternAsync(Pattern.compile("stopped"), Duration.ofSeconds(10));
+		pipe.run();
+
+		MatchResult match = started.getNow(null);
+		assertNotNull(match);
+		assertEquals("1111", match.group(2));
+		assertEquals(1, pipe.getStats().getHookCalls());
+		ExecutionException e = assertThrows(ExecutionException.class, stopped::get);
+		assertTrue(e.getCause() instanceof EOFException);
+		assertThrows(EOFException.class, () -> pipe.awaitPattern(Pattern.compile("x"), Duration.ofSeconds(1)));
+
+		// the pipe is running, but the input has no data
+		PipedOutputStream service = new PipedOutputStream();
+		Pipe running = new Pipe(
+			new Pipe.Builder(new PipedInputStream(service), new ByteArrayOutputStream()).setPrefix("> ")
+		);
+		Thread t = running.initThread();
+		t.start();
+		assertThrows(TimeoutException.class, () -> running.awaitPattern(Pattern.compile("x"), Duration.ofMillis(50)));
+		service.close();
+		t.join();
+
+		// lines are not split if the input is copied verbatim
+		Pipe passthrough = new Pipe(new Pipe.Builder(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream()));
+		assertThrows(
+			IllegalStateException.class,
+			() -> passthrough.awaitPattern(Pattern.compile("x"), Duration.ofSeconds(1))
+		);
+
+		// unless runtime hooks are allowed, even without any other hook or transformation
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Pipe.Builder plain = new Pipe.Builder(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out)
+			.setRuntimeHooks(true);
+		assertFalse(plain.isPassthrough());
+		Pipe forwarding = new Pipe(plain);
+		CompletableFuture<MatchResult> ready = forwarding.awaitPatternAsync(
+			Pattern.compile("running on [\\d.]+:(\\d+)"),
+			Duration.ofSeconds(10)
+		);
+		forwarding.run();
+		assertEquals("1111", ready.getNow(null).group(1));
+		String nl = System.lineSeparator();
+		assertEquals(input.replace("\n", nl) + nl, out.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	@DisplayName("Testing awaited patterns don't count as the first match of a line")
+	void awaitPatternFirstMatchOnly() {
+		byte[] input = "Starting service...\nService is running on 127.0.0.1:1111\n".getBytes(StandardCharsets.UTF_8);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for (int priority : new int[]{0, 1}) {
+				for (boolean parallel : new boolean[]{false, true}) {
+					List<String> calls = new ArrayList<>();
+					Pipe.Builder builder = new Pipe.Builder(new ByteArrayInputStream(input), new ByteArrayOutputStream())
+						.addHook(Hook.of(Pattern.compile("running"), calls::add).withPriority(priority))
+						.addHook(Hook.of(Pattern.compile("Service"), line -> calls.add("second")))
+						.setFirstMatchOnly(true);
+					if (parallel)
+						builder.setParallelHooks(pool, 16);
+					Pipe pipe = new Pipe(builder);
+					CompletableFuture<MatchResult> started = pipe.awaitPatternAsync(
+						Pattern.compile("running on [\\d.]+:(\\d+)"),
+						Duration.ofSeconds(10)
+					);
+					pipe.run();
+
+					assertEquals("1111", started.getNow(null).group(1));
+					assertEquals(List.of("Service is running on 127.0.0.1:1111"), calls);
+					assertEquals(2, pipe.getStats().getHookCalls());
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	@DisplayName("Testing hooks are added and removed while the pipe is running")
+	void runtimeHooks() throws IOException, InterruptedException {
+		List<String> calls = Collections.synchronizedList(new ArrayList<>());
+		List<Exception> exceptions = Collections.synchronizedList(new ArrayList<>());
+		Hook first = Hook.of(Pattern.compile("a"), line -> calls.add("first " + line));
+		Hook second = Hook.of(Pattern.compile("b"), line -> calls.add("second " + line));
+		PipedOutputStream service = new PipedOutputStream();
+		Pipe pipe = new Pipe(
+			new Pipe.Builder(new PipedInputStream(service), new ByteArrayOutputStream())
+				.addHook(first)
+				.setOnException(exceptions::add)
+		);
+		Thread t = pipe.initThread();
+		t.start();
+
+		writeAndWait(pipe, service, "a b\n", 1);
+		pipe.addHook(second);
+		writeAndWait(pipe, service, "a b\n", 2);
+		pipe.removeHook(first);
+		writeAndWait(pipe, service, "a b\n", 3);
+		pipe.removeHook(second);
+		writeAndWait(pipe, service, "a b\n", 4);
+		assertEquals(List.of("first a b", "first a b", "second a b", "second a b"), calls);
+
+		// hooks changed by another thread while lines are matched
+		calls.clear();
+		Thread changer = new Thread(() -> {
+			for (int i = 0; i < 1000; ++i) {
+				Hook hook = Hook.of(Pattern.compile("x" + (i % 10)), line -> {});
+				pipe.addHook(hook);
+				if (i % 2 == 0)
+					pipe.removeHook(hook);
+			}
+		});
+		changer.start();
+		for (int i = 0; i < 1000; ++i)
+			service.write(("x" + (i % 10) + "\n").getBytes(StandardCharsets.UTF_8));
+		changer.join();
+		service.close();
+		t.join();
+		assertEquals(1004, pipe.getStats().getLines());
+		assertEquals(List.of(), exceptions);
+
+		// a pipe built without hooks nor transformations, which would otherwise copy its input verbatim
+		calls.clear();
+		PipedOutputStream plainService = new PipedOutputStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Pipe plain = new Pipe(new Pipe.Builder(new PipedInputStream(plainService), out).setRuntimeHooks(true));
+		Thread plainThread = plain.initThread();
+		plainThread.start();
+		writeAndWait(plain, plainService, "a b\n", 1);
+		plain.addHook(first);
+		writeAndWait(plain, plainService, "a b\n", 2);
+		plainService.close();
+		plainThread.join();
+		assertEquals(List.of("first a b"), calls);
+		String nl = System.lineSeparator();
+		assertEquals("a b" + nl + "a b" + nl, out.toString(StandardCharsets.UTF_8));
+
+		assertThrows(IllegalStateException.class, () -> new Pipe(
+			new Pipe.Builder(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream())
+		).addHook(first));
+	}
+
+	private static void writeAndWait(Pipe pipe, OutputStream out, String line, long lines)
+		throws IOException, InterruptedException {
+		out.write(line.getBytes(StandardCharsets.UTF_8));
+		out.flush();
+		while (pipe.getStats().getLines() < lines)
+			Thread.sleep(1);
+	}
+
+	@Test
+	@DisplayName("Testing hooks evaluated in parallel are called in line order")
+	void parallelHooks() {
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 3000; ++i)
+			input.append("line ").append(i).append(": value ").append(i * 7 % 13).append('\n');
+		byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			// UTF-16 output makes the pipe read characters instead of bytes
+			for (int mode = 0; mode < 4; ++mode) {
+				Charset outCharset = mode % 2 == 0 ? StandardCharsets.UTF_8 : StandardCharsets.UTF_16BE;
+				boolean firstMatchOnly = mode >= 2;
+				List<List<String>> results = new ArrayList<>();
+				for (boolean parallel : new boolean[]{false, true}) {
+					List<String> calls = new ArrayList<>();
+					Pipe.Builder builder = new Pipe.Builder(
+						new ByteArrayInputStream(bytes),
+						new ByteArrayOutputStream(),
+						StandardCharsets.UTF_8,
+						outCharset
+					)
+						.addHook(Hook.of(Pattern.compile("value 1[0-2]$"), calls::add))
+						.addHook(Hook.of(Pattern.compile("line \\d*5:"), calls::add))
+						.addHook(Hook.of(Pattern.compile("value 3"), line -> calls.add("once " + line)).once())
+						.addHook(Hook.of(Pattern.compile("line (\\d+)7: value (\\d+)"), (line, match, n, offset, nanos) ->
+							calls.add(match.group(1) + "/" + match.group(2) + "@" + n + ":" + offset)).times(50))
+						.setFirstMatchOnly(firstMatchOnly)
+						.setBufferSize(100);
+					if (parallel)
+						builder.setParallelHooks(pool, 16);
+					Pipe pipe = new Pipe(builder);
+					pipe.run();
+					results.add(calls);
+					assertEquals(calls.size(), pipe.getStats().getHookCalls());
+					assertEquals(3000, pipe.getStats().getLines());
+				}
+				assertEquals(results.get(0), results.get(1));
+				assertTrue(results.get(0).size() > (firstMatchOnly ? 700 : 1000));
+			}
+		} finally {
+			pool.shutdown();
+		}
+		assertThrows(IllegalArgumentException.class, () -> new Pipe.Builder(System.in, System.out).setParallelHooks(pool, 0));
+	}
+
+	@Test
+	@DisplayName("Testing lines are filtered and routed in the same pass as hooks")
+	void lineFilters() throws IOException {
+		String nl = System.lineSeparator();
+		byte[] input = "INFO start\nDEBUG x\nERROR boom\nWARN careful\nINFO end".getBytes(StandardCharsets.UTF_8);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			// UTF-16 output makes the pipe read characters, and parallel hooks filter lines separately
+			for (int mode = 0; mode < 4; ++mode) {
+				Charset outCharset = mode == 1 ? StandardCharsets.UTF_16BE : StandardCharsets.UTF_8;
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				ByteArrayOutputStream errors = new ByteArrayOutputStream();
+				List<String> hooked = new ArrayList<>();
+				Pipe.Builder builder = new Pipe.Builder(
+					new ByteArrayInputStream(input),
+					out,
+					StandardCharsets.UTF_8,
+					outCharset
+				)
+					.addLineFilter(LineFilter.drop(Pattern.compile("DEBUG")))
+					.addLineFilter(LineFilter.route(Pattern.compile("ERROR|FATAL"), errors))
+					.addHook(Hook.of(Pattern.compile("^[A-Z]+"), hooked::add))
+					.setPrefix("> ");
+				if (mode == 2)
+					builder.setParallelHooks(pool, 2);
+				if (mode == 3)
+					builder.setWriterStage(4, OverflowPolicy.BLOCK);
+				assertFalse(builder.isPassthrough());
+
+				new Pipe(builder).run();
+				assertEquals("> INFO start" + nl + "> WARN careful" + nl + "> INFO end" + nl, out.toString(outCharset));
+				assertEquals("> ERROR boom" + nl, errors.toString(outCharset));
+				assertEquals(5, hooked.size());
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		// like grep: once there is a filter keeping lines, lines not matching any filter are dropped
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new Pipe(new Pipe.Builder(new ByteArrayInputStream(input), out)
+			.addLineFilter(LineFilter.drop(Pattern.compile("end")))
+			.addLineFilter(LineFilter.keep(Pattern.compile("INFO|WARN")))
+		).run();
+		assertEquals("INFO start" + nl + "WARN careful" + nl, out.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	@DisplayName("Testing channels and files are piped with and without line transformations")
+	void channels() throws IOException {
+		String input = "first line\nsecond line\n";
+		Path inPath = Files.createTempFile("pipe-in", ".txt");
+		Path outPath = Files.createTempFile("pipe-out", ".txt");
+		try {
+			Files.write(inPath, input.getBytes(StandardCharsets.UTF_8));
+
+			// file -> channel (transferTo)
+			ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+			new Pipe(
+				Pipe.Builder.fromFile(inPath, Channels.newChannel(outStream)).setHeader("-- Header --\n")
+			).run();
+			assertEquals("-- Header --\n" + input, outStream.toString(StandardCharsets.UTF_8));
+
+			// channel -> file (transferFrom)
+			new Pipe(
+				Pipe.Builder.toFile(
+					Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))),
+					outPath
+				).setFooter("-- Footer --\n")
+			).run();
+			assertEquals(input + "-- Footer --\n", Files.readString(outPath));
+
+			// file -> file with prefix (line by line)
+			new Pipe(
+				Pipe.Builder.toFile(FileChannel.open(inPath, StandardOpenOption.READ), outPath).setPrefix("> ")
+			).run();
+			assertEquals(
+				"> first line" + System.lineSeparator() + "> second line" + System.lineSeparator(),
+				Files.readString(outPath)
+			);
+		} finally {
+			Files.delete(inPath);
+			Files.delete(outPath);
+		}
+	}
+
+	@Test
+	@DisplayName("Testing lines are written with gathering writes when the output is a gathering channel")
+	void gatheringWrites() {
+		StringBuilder input = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 1000; ++i) {
+			input.append("line ").append(i).append('\n');
+			expected.append("> line ").append(i).append(" <").append(System.lineSeparator());
+		}
+
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		AtomicInteger gatheringWrites = new AtomicInteger();
+		GatheringByteChannel outChannel = new GatheringByteChannel() {
+			private final WritableByteChannel channel = Channels.newChannel(outStream);
+
+			@Override
+			public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+				gatheringWrites.incrementAndGet();
+				long n = 0;
+				// write only some of the buffers, as a real channel may do
+				for (int i = offset; i < offset + Math.min(length, 7); ++i)
+					n += channel.write(srcs[i]);
+				return n;
+			}
+
+			@Override
+			public long write(ByteBuffer[] srcs) throws IOException {
+				return write(srcs, 0, srcs.length);
+			}
+
+			@Override
+			public int write(ByteBuffer src) throws IOException {
+				return channel.write(src);
+			}
+
+			@Override
+			public boolean isOpen() {
+				return channel.isOpen();
+			}
+
+			@Override
+			public void close() throws IOException {
+				channel.close();
+			}
+		};
+
+		new Pipe(
+			new Pipe.Builder(
+				Channels.newChannel(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8))),
+				outChannel
+			)
+				.setPrefix("> ")
+				.setSuffix(" <")
+				.setHeader("-- Header --\n")
+				.setAutoFlush(false)
+				.setBufferSize(1000)
+		).run();
+
+		assertEquals("-- Header --\n" + expected, outStream.toString(StandardCharsets.UTF_8));
+		assertTrue(gatheringWrites.get() > 0);
+	}
+
+	@Test
+	@DisplayName("Testing lines longer than the maximum length are split, truncated or streamed")
+	void longLines() {
+		String nl = System.lineSeparator();
+		String input = "abcdefghij\nxy\nñandú";
+		for (Charset charset : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.UTF_16LE}) {
+			// UTF-8 lines are framed as bytes, and multi-byte characters are never split
+			boolean bytes = charset.equals(StandardCharsets.UTF_8);
+			for (int bufferSize : new int[]{3, 4096}) {
+				assertEquals(
+					"> abcd <" + nl + "> efgh <" + nl + "> ij <" + nl + "> xy <" + nl
+						+ (bytes ? "> ñan <" + nl + "> dú <" : "> ñand <" + nl + "> ú <") + nl,
+					longLines(input, charset, bufferSize, LongLinePolicy.SPLIT, null)
+				);
+				assertEquals(
+					"> abcd... <" + nl + "> xy <" + nl + (bytes ? "> ñan... <" : "> ñand... <") + nl,
+					longLines(input, charset, bufferSize, LongLinePolicy.TRUNCATE, null)
+				);
+
+				// hooks are tested on windows overlapping by half the maximum length
+				List<String> matched = new ArrayList<>();
+				assertEquals(
+					"> abcdefghij <" + nl + "> xy <" + nl + "> ñandú <" + nl,
+					longLines(input, charset, bufferSize, LongLinePolicy.STREAM, matched)
+				);
+				assertEquals(List.of("efgh"), matched);
+			}
+		}
+
+		Pipe.Builder builder = new Pipe.Builder(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+		assertThrows(IllegalArgumentException.class, () -> builder.setMaxLineLength(0, LongLinePolicy.SPLIT));
+		assertTrue(builder.isPassthrough());
+		assertFalse(builder.setMaxLineLength(80, LongLinePolicy.SPLIT).isPassthrough());
+	}
+
+	private static String longLines(
+		String input,
+		Charset charset,
+		int bufferSize,
+		LongLinePolicy policy,
+		List<String> matched
+	) {
+		HashMap<Pattern, Consumer<String>> hooks = new HashMap<>();
+		if (matched != null)
+			hooks.put(Pattern.compile("efg"), matched::add);
+
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		new Pipe(
+			new Pipe.Builder(new ByteArrayInputStream(input.getBytes(charset)), outStream, charset, charset)
+				.setPrefix("> ")
+				.setSuffix(" <")
+				.setHooks(hooks)
+				.setMaxLineLength(4, policy)
+				.setBufferSize(bufferSize)
+		).run();
+		return outStream.toString(charset);
+	}
+
+	@Test
+	@DisplayName("Testing binary-safe record framings")
+	void recordFraming() {
+		List<String> matched = new ArrayList<>();
+		HashMap<Pattern, Consumer<String>> hooks = new HashMap<>();
+		hooks.put(Pattern.compile("^b\nc$"), matched::add);
+		assertEquals("> a\0> b\nc\0> d\0", frame("a\0b\nc\0d", RecordFraming.NUL, "> ", null, hooks));
+		assertEquals(List.of("b\nc"), matched);
+
+		// length headers are rewritten with the prefix and suffix
+		assertEquals("\5<abc>\2<>", frame("\3abc\0", RecordFraming.lengthPrefixed(1), "<", ">", null));
+		assertEquals("|ab|cd|e", frame("abcde", RecordFraming.fixedSize(2), "|", null, null));
+	}
+
+	private static String frame(
+		String input,
+		RecordFraming framing,
+		String prefix,
+		String suffix,
+		HashMap<Pattern, Consumer<String>> hooks
+	) {
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		new Pipe(
+			new Pipe.Builder(new ByteArrayInputStream(input.getBytes(StandardCharsets.ISO_8859_1)), outStream)
+				.setRecordFraming(framing)
+				.setPrefix(prefix)
+				.setSuffix(suffix)
+				.setHooks(hooks)
+				.setBufferSize(3)
+		).run();
+		return outStream.toString(StandardCharsets.ISO_8859_1);
+	}
+
+	@Test
+	@DisplayName("Testing hooks and partial line timeout for prompts without a line terminator")
+	void partialLines() throws IOException, InterruptedException {
+		for (Charset charset : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.UTF_16LE}) {
+			PipedOutputStream producer = new PipedOutputStream();
+			PipedInputStream inStream = new PipedInputStream(producer);
+			ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+			CountDownLatch prompted = new CountDownLatch(1);
+			AtomicInteger hookCalls = new AtomicInteger();
+			HashMap<Pattern, Consumer<String>> hooks = new HashMap<>();
+			hooks.put(Pattern.compile("Password:"), line -> {
+				hookCalls.incrementAndGet();
+				prompted.countDown();
+			});
+
+			Thread t = new Pipe(
+				new Pipe.Builder(inStream, outStream, charset, charset)
+					.setPrefix("> ")
+					.setHooks(hooks)
+					.setPartialLineHooks(true)
+					.setPartialLineTimeout(Duration.ofMillis(10))
+			).initThread();
+			t.start();
+
+			producer.write("Password: ".getBytes(charset));
+			producer.flush();
+			assertTrue(prompted.await(5, TimeUnit.SECONDS));
+
+			// the prompt is written once the input is idle
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (!outStream.toString(charset).equals("> Password: ") && System.nanoTime() < deadline)
+				Thread.sleep(1);
+			assertEquals("> Password: ", outStream.toString(charset));
+
+			producer.write("secret\nnext line\n".getBytes(charset));
+			producer.close();
+			t.join();
+
+			assertEquals(
+				"> Password: secret" + System.lineSeparator() + "> next line" + System.lineSeparator(),
+				outStream.toString(charset)
+			);
+			assertEquals(1, hookCalls.get()); // not called again when the line is complete
+		}
+	}
+
+	@Test
+	@DisplayName("Testing hooks are run asynchronously on the given executor")
+	void asyncHooks() throws InterruptedException, IOException {
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 100; ++i)
+			input.append("line ").append(i).append('\n');
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// every hook execution must be delivered, in order
+			List<String> lines = Collections.synchronizedList(new ArrayList<>());
+			CountDownLatch done = new CountDownLatch(100);
+			HashMap<Pattern, Consumer<String>> map = new HashMap<>();
+			map.put(Pattern.compile("line"), s -> {
+				lines.add(s);
+				done.countDown();
+			});
+			Pipe pipe = new Pipe(
+				new Pipe.Builder(
+					new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)),
+					new ByteArrayOutputStream()
+				)
+					.setHooks(map)
+					.setHookExecutor(executor, 2, OverflowPolicy.BLOCK)
+			);
+			pipe.run();
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			assertEquals("line 0", lines.get(0));
+			assertEquals("line 99", lines.get(99));
+			assertEquals(0, pipe.getDroppedHookEvents());
+
+			// a blocked hook makes the rest of executions to be dropped, without stalling the pipe
+			CountDownLatch release = new CountDownLatch(1);
+			map.put(Pattern.compile("line"), s -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			pipe = new Pipe(
+				new Pipe.Builder(
+					new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)),
+					new ByteArrayOutputStream()
+				)
+					.setHooks(map)
+					.setHookExecutor(executor, 1, OverflowPolicy.DROP_NEWEST)
+			);
+			pipe.run();
+			release.countDown();
+			assertTrue(pipe.getDroppedHookEvents() >= 98);
+
+			// exceptions thrown by async hooks are failures of the pipe
+			List<Exception> exceptions = Collections.synchronizedList(new ArrayList<>());
+			CountDownLatch thrown = new CountDownLatch(1);
+			PipedOutputStream service = new PipedOutputStream();
+			Pipe failing = new Pipe(
+				new Pipe.Builder(new PipedInputStream(service), new ByteArrayOutputStream())
+					.addHook(Hook.of(Pattern.compile("boom"), line -> {
+						thrown.countDown();
+						throw new IllegalStateException(line);
+					}))
+					.setHookExecutor(executor, 4, OverflowPolicy.BLOCK)
+					.setOnException(exceptions::add)
+			);
+			PipeHandle handle = failing.start(ForkJoinPool.commonPool());
+			service.write("boom\n".getBytes(StandardCharsets.UTF_8));
+			service.flush();
+			assertTrue(thrown.await(10, TimeUnit.SECONDS));
+			while (exceptions.isEmpty())
+				Thread.sleep(1);
+			service.close();
+			ExecutionException e = assertThrows(ExecutionException.class, () -> handle.completion().get());
+			assertTrue(e.getCause() instanceof IllegalStateException);
+
+			assertThrows(
+				IllegalArgumentException.class,
+				() -> new Pipe.Builder(InputStream.nullInputStream(), OutputStream.nullOutputStream())
+					.setHookExecutor(executor, 0, OverflowPolicy.BLOCK)
+			);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	@DisplayName("Testing lines are written by a separate writer stage")
+	void writerStage() {
+		StringBuilder input = new StringBuilder();
+		StringBuilder expected = new StringBuilder("-- Header --\n");
+		for (int i = 0; i < 1000; ++i) {
+			input.append("line ").append(i).append('\n');
+			expected.append("> line ").append(i).append(System.lineSeparator());
+		}
+		expected.append("-- Footer --\n");
+
+		AtomicInteger hooks = new AtomicInteger();
+		HashMap<Pattern, Consumer<String>> map = new HashMap<>();
+		map.put(Pattern.compile("line"), s -> hooks.incrementAndGet());
+
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+		Pipe pipe = new Pipe(
+			new Pipe.Builder(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)), outStream)
+				.setHeader("-- Header --\n")
+				.setFooter("-- Footer --\n")
+				.setPrefix("> ")
+				.setHooks(map)
+				.setWriterStage(4, OverflowPolicy.BLOCK)
+		);
+		pipe.run();
+
+		assertEquals(expected.toString(), outStream.toString(StandardCharsets.UTF_8));
+		assertEquals(1000, hooks.get());
+		assertEquals(0, pipe.getDroppedLines());
+		assertThrows(
+			IllegalArgumentException.class,
+			() -> new Pipe.Builder(InputStream.nullInputStream(), outStream)
+				.setWriterStage(1, OverflowPolicy.DROP_OLDEST)
+		);
+	}
+
+	@Test
+	@DisplayName("Testing output is flushed according to the flush policy")
+	void flushPolicy() {
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 100; ++i)
+			input.append("line ").append(i).append('\n');
+		byte[] bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+		AtomicInteger flushes = new AtomicInteger();
+		OutputStream outStream = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushes.incrementAndGet();
+			}
+		};
+
+		Pipe.Builder builder = new Pipe.Builder(new ByteArrayInputStream(bytes), outStream)
+			.setPrefix("> ")
+			.setFlushPolicy(FlushPolicy.everyLines(10));
+		assertFalse(builder.shouldAutoFlush());
+		new Pipe(builder).run();
+		assertEquals(10 + 1, flushes.get()); // +1 because output is always flushed at the end
+
+		// the whole input is available from the beginning, so it is only idle after the last line
+		flushes.set(0);
+		new Pipe(
+			new Pipe.Builder(new ByteArrayInputStream(bytes), outStream)
+				.setPrefix("> ")
+				.setFlushPolicy(FlushPolicy.whenInputIdle().or(FlushPolicy.everyBytes(1024)))
+		).run();
+		assertEquals(1 + 1, flushes.get());
+
+		// the LF of a CRLF ending the input is not more input, for lines framed as bytes and as characters
+		byte[] crlf = input.toString().replace("\n", "\r\n").getBytes(StandardCharsets.UTF_8);
+		for (Charset outCharset : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.UTF_16BE}) {
+			flushes.set(0);
+			new Pipe(
+				new Pipe.Builder(new ByteArrayInputStream(crlf), outStream, StandardCharsets.UTF_8, outCharset)
+					.setPrefix("> ")
+					.setFlushPolicy(FlushPolicy.whenInputIdle())
+			).run();
+			assertEquals(1 + 1, flushes.get());
+		}
+
+		flushes.set(0);
+		new Pipe(new Pipe.Builder(new ByteArrayInputStream(bytes), outStream).setPrefix("> ")).run();
+		assertEquals(100 + 1, flushes.get());
+
+		assertThrows(IllegalArgumentException.class, () -> FlushPolicy.everyLines(0));
+	}
+
+	@Test
+	@DisplayName("Testing pipes started in an executor and in a (virtual) thread")
+	void start() throws Exception {
+		byte[] input = "Service is running\nsecond line\n".getBytes(StandardCharsets.UTF_8);
+		HashMap<Pattern, Consumer<String>> map = new HashMap<>();
+		map.put(Pattern.compile("running"), s -> {});
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			PipeHandle handle = new Pipe(
+				new Pipe.Builder(new ByteArrayInputStream(input), new ByteArrayOutputStream()).setHooks(map)
+			).start(executor);
+			PipeStats stats = handle.completion().get(10, TimeUnit.SECONDS);
+			assertTrue(handle.isDone());
+			assertEquals(2, stats.getLines());
+			assertEquals(1, stats.getHookCalls());
+			assertEquals(input.length + 2L * (System.lineSeparator().length() - 1), stats.getBytesWritten());
+		} finally {
+			executor.shutdown();
+		}
+
+		PipeHandle handle = new Pipe(
+			new Pipe.Builder(new ByteArrayInputStream(input), new ByteArrayOutputStream())
+		).startVirtual();
+		assertEquals(input.length, handle.completion().get(10, TimeUnit.SECONDS).getBytesWritten());
+		// the Java 21 classes of the multi-release jar create virtual threads (see the java21 profile)
+		if (Boolean.getBoolean("pipe.multiRelease"))
+			assertEquals(true, Thread.class.getMethod("isVirtual").invoke(ThreadSupport.newThread(() -> {}, "test")));
+
+		// errors complete the future exceptionally
+		InputStream closed = new BufferedInputStream(new ByteArrayInputStream(input));
+		closed.close();
+		handle = new Pipe(new Pipe.Builder(closed, new ByteArrayOutputStream()).setPrefix("> ")).startVirtual();
+		CompletableFuture<PipeStats> completion = handle.completion();
+		ExecutionException e = assertThrows(ExecutionException.class, () -> completion.get(10, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof IOException);
+	}
+}
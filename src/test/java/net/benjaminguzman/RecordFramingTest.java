@@ -0,0 +1,133 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordFramingTest {
+	@Test
+	@DisplayName("Testing records split across chunks with every kind of framing")
+	void framings() throws IOException {
+		assertEquals(
+			List.of("a\r", "b", "", "c\r"),
+			split("a\r\nb\n\nc\r", RecordFraming.LF)
+		);
+		assertEquals(
+			List.of("a", "b\nc\rd", "e"),
+			split("a\r\nb\nc\rd\r\ne", RecordFraming.CRLF)
+		);
+		assertEquals(
+			List.of("./a file", "./with\nnew line", ""),
+			split("./a file\0./with\nnew line\0\0", RecordFraming.NUL)
+		);
+		// delimiters overlapping with themselves, split between chunks
+		assertEquals(
+			List.of("a", "abx", "a", "ab"),
+			split("aabababxababaababab", RecordFraming.delimiter("abab".getBytes(StandardCharsets.UTF_8)))
+		);
+		assertEquals(
+			List.of("abc", "def", "g"),
+			split("abcdefg", RecordFraming.fixedSize(3))
+		);
+		assertEquals(
+			List.of("hello", "", "a\nb\0"),
+			split("\0\5hello\0\0\0\4a\nb\0", RecordFraming.lengthPrefixed(2))
+		);
+
+		assertThrows(IllegalArgumentException.class, () -> RecordFraming.delimiter(new byte[0]));
+		assertThrows(IllegalArgumentException.class, () -> RecordFraming.lengthPrefixed(3));
+		assertThrows(IllegalArgumentException.class, () -> RecordFraming.fixedSize(0));
+	}
+
+	@Test
+	@DisplayName("Testing bytes are found 8 at a time, at any position and alignment")
+	void scanner() {
+		// the Java 21 classes of the multi-release jar search with the Vector API (see the java21 profile)
+		assertEquals(Boolean.getBoolean("pipe.multiRelease"), VectorScan.isAvailable());
+
+		Random random = new Random(42);
+		byte[] bytes = new byte[100];
+		for (int i = 0; i < 1000; ++i) {
+			random.nextBytes(bytes);
+			int from = random.nextInt(bytes.length);
+			int to = from + random.nextInt(bytes.length - from + 1);
+			byte b1 = bytes[random.nextInt(bytes.length)];
+			byte b2 = (byte) random.nextInt(256);
+
+			int expected = -1, expectedEither = -1;
+			for (int j = to - 1; j >= from; --j) {
+				if (bytes[j] == b1)
+					expected = j;
+				if (bytes[j] == b1 || bytes[j] == b2)
+					expectedEither = j;
+			}
+			assertEquals(expected, ByteScanner.indexOf(bytes, from, to, b1));
+			assertEquals(expectedEither, ByteScanner.indexOf(bytes, from, to, b1, b2));
+			assertEquals(expectedEither, ByteScanner.indexOfAny(bytes, from, to, new byte[]{b2, b1, b2}));
+
+			for (int j = from; j < to; ++j)
+				bytes[j] &= 0x7F;
+			assertTrue(ByteScanner.isAscii(bytes, from, to));
+			if (from < to) {
+				bytes[to - 1] |= (byte) 0x80;
+				assertFalse(ByteScanner.isAscii(bytes, from, to));
+			}
+		}
+	}
+
+	/**
+	 * Splits the text fed in chunks of every size, and checks every size gives the same records
+	 */
+	private static List<String> split(String text, RecordFraming framing) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+		List<String> first = null;
+		for (int chunk = 1; chunk <= bytes.length; ++chunk) {
+			List<String> records = new ArrayList<>();
+			ByteLineSplitter.LineConsumer consumer = (array, offset, length) ->
+				records.add(new String(array, offset, length, StandardCharsets.ISO_8859_1));
+			ByteLineSplitter splitter = new ByteLineSplitter();
+			splitter.setFraming(framing);
+			for (int i = 0; i < bytes.length; i += chunk)
+				splitter.feed(bytes, i, Math.min(chunk, bytes.length - i), consumer);
+			splitter.finish(consumer);
+
+			if (first == null)
+				first = records;
+			else
+				assertEquals(first, records, "Chunks of " + chunk + " bytes");
+		}
+		return first;
+	}
+}
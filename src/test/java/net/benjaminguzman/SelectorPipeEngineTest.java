@@ -0,0 +1,116 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SelectorPipeEngineTest {
+	@Test
+	@DisplayName("Testing many selectable channels are served by a single thread")
+	void manyChannels() throws Exception {
+		AtomicInteger hooks = new AtomicInteger();
+		HashMap<Pattern, Consumer<String>> map = new HashMap<>();
+		map.put(Pattern.compile("ready"), s -> hooks.incrementAndGet());
+
+		int n = 100;
+		try (SelectorPipeEngine engine = new SelectorPipeEngine(16)) {
+			List<java.nio.channels.Pipe> channels = new ArrayList<>();
+			List<ByteArrayOutputStream> outputs = new ArrayList<>();
+			List<PipeHandle> handles = new ArrayList<>();
+			for (int i = 0; i < n; ++i) {
+				java.nio.channels.Pipe channel = java.nio.channels.Pipe.open();
+				ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+				channels.add(channel);
+				outputs.add(outStream);
+				handles.add(engine.add(new Pipe(
+					new Pipe.Builder(channel.source(), Channels.newChannel(outStream))
+						.setPrefix("[" + i + "] ")
+						.setHooks(map)
+				)));
+			}
+
+			// interleave partial lines of every channel
+			String[] chunks = {"service ", "is ready\nsecond ", "line\r\nlast"};
+			for (String chunk : chunks)
+				for (java.nio.channels.Pipe channel : channels)
+					channel.sink().write(ByteBuffer.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+			for (java.nio.channels.Pipe channel : channels)
+				channel.sink().close();
+
+			String nl = System.lineSeparator();
+			for (int i = 0; i < n; ++i) {
+				assertEquals(3, handles.get(i).completion().get(10, TimeUnit.SECONDS).getLines());
+				assertEquals(
+					"[" + i + "] service is ready" + nl + "[" + i + "] second line" + nl + "[" + i + "] last" + nl,
+					outputs.get(i).toString(StandardCharsets.UTF_8)
+				);
+			}
+			assertEquals(n, hooks.get());
+			assertEquals(3L * n, engine.getStats().getLines());
+			assertEquals(0, engine.size());
+		}
+	}
+
+	@Test
+	@DisplayName("Testing unfinished pipes are aborted when the engine is closed")
+	void close() throws IOException, InterruptedException {
+		java.nio.channels.Pipe channel = java.nio.channels.Pipe.open();
+		SelectorPipeEngine engine = new SelectorPipeEngine();
+		PipeHandle handle = engine.add(new Pipe(
+			new Pipe.Builder(channel.source(), Channels.newChannel(new ByteArrayOutputStream()))
+		));
+		engine.close();
+		assertTrue(engine.awaitTermination(Duration.ofSeconds(10)));
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> handle.completion().get());
+		assertTrue(e.getCause() instanceof CancellationException);
+		assertFalse(channel.source().isOpen());
+		assertThrows(
+			IllegalArgumentException.class,
+			() -> engine.add(new Pipe(new Pipe.Builder(InputStream.nullInputStream(), new ByteArrayOutputStream())))
+		);
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021. Benjamín Antonio Velasco Guzmán
+ * Author: Benjamín Antonio Velasco Guzmán <bg@benjaminguzman.dev>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.benjaminguzman;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpscRingBufferTest {
+	@Test
+	@DisplayName("Testing capacity is rounded up to a power of 2 and elements are kept in order")
+	void offerPoll() {
+		SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(3);
+		assertTrue(ring.isEmpty());
+		for (int i = 0; i < 4; ++i)
+			assertTrue(ring.offer(i));
+		assertFalse(ring.offer(4));
+
+		assertEquals(0, ring.poll());
+		assertTrue(ring.offer(4));
+		for (int i = 1; i <= 4; ++i)
+			assertEquals(i, ring.poll());
+		assertNull(ring.poll());
+		assertTrue(ring.isEmpty());
+
+		assertThrows(IllegalArgumentException.class, () -> new SpscRingBuffer<>(0));
+	}
+
+	@Test
+	@DisplayName("Testing a producer and a consumer in different threads")
+	void producerConsumer() throws InterruptedException {
+		SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(8);
+		int n = 50_000;
+		Thread producer = new Thread(() -> {
+			for (int i = 0; i < n; ++i)
+				ring.put(i);
+		});
+		producer.start();
+
+		for (int i = 0; i < n; ++i)
+			assertEquals(i, ring.take());
+		producer.join();
+		assertNull(ring.poll());
+	}
+}